@@ -0,0 +1,39 @@
+package benjaminshi.aim.eci.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** The entry point of the benchmark jar, the JMH command line with the GC profiler added by default,
+ * so the bytes allocated per operation are reported alongside the throughput.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public class BenchmarkMain {
+
+	/** Run the benchmarks
+	 * @param args the JMH command line options, see java -jar benchmarks.jar -h
+	 * @throws Exception when the options are invalid or a benchmark fails
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		CommandLineOptions cmd = new CommandLineOptions(args);
+
+		if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListProfilers() || cmd.shouldListResultFormats())
+		{
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+
+		if (cmd.getProfilers().isEmpty())
+		{
+			options.addProfiler(GCProfiler.class);
+		}
+
+		new Runner(options.build()).run();
+	}
+}
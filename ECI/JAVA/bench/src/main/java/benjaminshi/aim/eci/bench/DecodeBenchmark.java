@@ -0,0 +1,67 @@
+package benjaminshi.aim.eci.bench;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benjaminshi.aim.eci.ECISegment;
+
+/** The benchmark of decoding the text of a segment, {@link ECISegment#getSegmentText()}, for every registered charset.
+ * The segment is set again from its escaped data on every invocation, so the cached text is never returned,
+ * and the measured work is un-escaping and decoding the data.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+	/** the ECI of the segment, every ECI registered with a charset, see {@link benjaminshi.aim.eci.AIMECI#AllCharasetECIInfo()},
+	 * but 12 (ISO-8859-10) and 16 (ISO-8859-14) whose charsets the JDK does not ship */
+	@Param({ "3", "4", "5", "6", "7", "8", "9", "10", "11", "13", "15", "17", "18",
+			"20", "21", "22", "23", "24", "25", "26", "27", "28", "29", "30", "31", "32", "33", "34", "35" })
+	public int eci;
+
+	/** the length of the segment data in bytes, from 50 B to 1 MB */
+	@Param({ "50", "1024", "65536", "1048576" })
+	public int size;
+
+	private ECISegment segment;
+
+	private byte[] escapedData;
+
+	@Setup
+	public void setup()
+	{
+		segment = new ECISegment();
+		segment.setECIValue(eci);
+
+		Charset charset = Charset.forName(segment.getCharset());
+
+		segment.setSegmentText(Payloads.text(charset, size));
+		escapedData = segment.getEscapedSegmentData();
+	}
+
+	@Benchmark
+	public String getSegmentText()
+	{
+		segment.setSegmentData(escapedData, 0, escapedData.length, true);
+
+		return segment.getSegmentText();
+	}
+}
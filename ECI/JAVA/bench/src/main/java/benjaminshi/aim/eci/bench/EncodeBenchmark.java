@@ -0,0 +1,68 @@
+package benjaminshi.aim.eci.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benjaminshi.aim.eci.AIMECI;
+import benjaminshi.aim.eci.ECIException;
+import benjaminshi.aim.eci.ECISegment;
+
+/** The benchmarks of writing segments as ECI escaped transmit data and text,
+ * {@link AIMECI#ToECITransmitData(List)} and {@link AIMECI#ToECIEscapedTransmitText(List)}.
+ * The segments are parsed once and reused, with whatever {@link ECISegment} caches between calls,
+ * as when an application writes the segments it holds; the benchmarks measure assembling the output from them.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+	/** the length of the transmit data in bytes, from 50 B to 1 MB */
+	@Param({ "50", "1024", "65536", "1048576" })
+	public int size;
+
+	/** the count of segments, limited to one per 16 bytes */
+	@Param({ "1", "16", "256" })
+	public int segments;
+
+	/** the count of escaped backslashes in every 1000 data bytes */
+	@Param({ "0", "10", "100" })
+	public int backslashPerMille;
+
+	private List<ECISegment> parsed;
+
+	@Setup
+	public void setup()
+	{
+		parsed = AIMECI.parseECI(Payloads.escapedData(size, segments, backslashPerMille));
+	}
+
+	@Benchmark
+	public byte[] toTransmitData() throws ECIException
+	{
+		return AIMECI.ToECITransmitData(parsed);
+	}
+
+	@Benchmark
+	public String toEscapedTransmitText() throws ECIException
+	{
+		return AIMECI.ToECIEscapedTransmitText(parsed);
+	}
+}
@@ -0,0 +1,68 @@
+package benjaminshi.aim.eci.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benjaminshi.aim.eci.AIMECI;
+import benjaminshi.aim.eci.ECISegment;
+
+/** The benchmarks of parsing ECI escaped transmit data and text, {@link AIMECI#parseECI(byte[])} and {@link AIMECI#parseECI(String)}
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+	/** the length of the payload in bytes, from 50 B to 1 MB */
+	@Param({ "50", "1024", "65536", "1048576" })
+	public int size;
+
+	/** the count of segments of the payload, limited to one per 16 bytes */
+	@Param({ "1", "16", "256" })
+	public int segments;
+
+	/** the count of escaped backslashes in every 1000 data bytes */
+	@Param({ "0", "10", "100" })
+	public int backslashPerMille;
+
+	private byte[] escapedData;
+
+	private String escapedText;
+
+	@Setup
+	public void setup()
+	{
+		escapedData = Payloads.escapedData(size, segments, backslashPerMille);
+		escapedText = new String(escapedData, StandardCharsets.ISO_8859_1);
+	}
+
+	@Benchmark
+	public List<ECISegment> parseBytes()
+	{
+		return AIMECI.parseECI(escapedData);
+	}
+
+	@Benchmark
+	public List<ECISegment> parseText()
+	{
+		return AIMECI.parseECI(escapedText);
+	}
+}
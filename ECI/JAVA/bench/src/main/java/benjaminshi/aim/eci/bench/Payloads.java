@@ -0,0 +1,101 @@
+package benjaminshi.aim.eci.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** The generator of the deterministic benchmark inputs
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+final class Payloads {
+
+	/** the ECIs of the segments of generated payloads, in turn, all decoding ASCII data as ASCII */
+	private static final int[] SEGMENT_ECIS = { 3, 26, 20, 23, 28, 32 };
+
+	/** the ranges of characters of the generated texts: ASCII, Latin-1, Greek, Cyrillic, Hebrew, Arabic, Thai, Kana, CJK and Hangul */
+	private static final int[][] TEXT_RANGES = {
+			{ 0x20, 0x7E }, { 0xA0, 0xFF }, { 0x391, 0x3C9 }, { 0x410, 0x44F }, { 0x5D0, 0x5EA }, { 0x621, 0x64A },
+			{ 0xE01, 0xE3A }, { 0x3041, 0x30FF }, { 0x4E00, 0x9FA5 }, { 0xAC00, 0xD7A3 } };
+
+	private Payloads() {
+	}
+
+	/** Generate ECI escaped transmit data
+	 * @param size the length of the data, at least
+	 * @param segments the count of segments, each but the first starting with a designator
+	 * @param backslashPerMille the count of backslashes in every 1000 data bytes, each escaped as two
+	 * @return the ECI escaped transmit data
+	 */
+	static byte[] escapedData(int size, int segments, int backslashPerMille)
+	{
+		Random random = new Random(size * 31L + segments * 7L + backslashPerMille);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size + 16);
+		int count = Math.max(1, Math.min(segments, size / 16));
+
+		for (int ii = 0;ii < count;++ii)
+		{
+			int end = (int) ((long) size * (ii + 1) / count);
+
+			if (ii > 0)
+			{
+				byte[] designator = String.format("\\%06d", SEGMENT_ECIS[ii % SEGMENT_ECIS.length]).getBytes(Charset.forName("US-ASCII"));
+				out.write(designator, 0, designator.length);
+			}
+			while (out.size() < end)
+			{
+				if (random.nextInt(1000) < backslashPerMille)
+				{
+					out.write('\\');
+					out.write('\\');
+				}
+				else
+				{
+					out.write('A' + random.nextInt(26) + ((random.nextInt(4) == 0) ? ('a' - 'A') : 0));
+				}
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+	/** Generate a text the charset can encode
+	 * @param charset the charset
+	 * @param size the length of the encoded text, at least
+	 * @return the text
+	 */
+	static String text(Charset charset, int size)
+	{
+		CharsetEncoder encoder = charset.newEncoder();
+		List<Character> chars = new ArrayList<Character>();
+
+		for (int[] range : TEXT_RANGES)
+		{
+			for (int c = range[0];c <= range[1];++c)
+			{
+				if (encoder.canEncode((char) c))
+				{
+					chars.add((char) c);
+				}
+			}
+		}
+
+		Random random = new Random(size * 31L + charset.name().hashCode());
+		StringBuilder text = new StringBuilder();
+		int length = 0;
+
+		while (length < size)
+		{
+			// half of the text is ASCII, as in most real payloads
+			char c = (random.nextBoolean() || (chars.size() <= 0x5F)) ? chars.get(random.nextInt(0x5F)) : chars.get(0x5F + random.nextInt(chars.size() - 0x5F));
+
+			text.append(c);
+			length += String.valueOf(c).getBytes(charset).length;
+		}
+
+		return text.toString();
+	}
+}
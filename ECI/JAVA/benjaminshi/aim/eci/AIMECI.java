@@ -1,10 +1,16 @@
 package benjaminshi.aim.eci;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.*;
-import java.lang.System;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /** The Class used for ECI protocol
  * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
@@ -21,158 +27,344 @@ public class AIMECI {
 		List<ECISegment> segments = new ArrayList<ECISegment>();
 		
 		ECISegment seg = null;
-        String seg_text = "";
-
-        int posSegment = -1;
-		
-        Pattern p = Pattern.compile("^\\\\\\d{6}");
-        
-        Matcher m = p.matcher(escapedText);
-        
-        if (!m.find())
-        {
-        	seg = new ECISegment();
-            segments.add(seg);
-            seg.ECIValue = 0;
-            seg_text = "";
-            ++posSegment;
-        }
-        for (int ii = 0;ii < escapedText.length();++ii)
-        {
-        	m = p.matcher(escapedText.substring(ii));
-        	
-            if (m.find())
-            {
-                if (posSegment >= 0)
-                {
-                    seg.setSegmentText(seg_text);
-                }
-                
-                seg = new ECISegment();
-                segments.add(seg);
-                seg_text = "";
-                ++posSegment;
-
-                seg.setECI(escapedText.substring(ii + 1, ii + 7));
-                
-                ii += 6;
-                continue;
-            }
-
-            seg_text += escapedText.substring(ii, ii + 1);
-        }
-
-        if (posSegment >= 0)
-        {
-            seg.setSegmentText(seg_text);
-        }
-
-        return segments;
+		
+		int length = escapedText.length();
+		int segStart = 0;
+		int ii = 0;
+		
+		if (escapedText.indexOf('\\') < 0)
+		{
+			// no ECI designator and nothing to un-escape, and ISO-8859-1 of the default segment never produces a backslash
+			seg = new ECISegment();
+			segments.add(seg);
+			seg.ECIValue = 0;
+			seg.setUnescapedSegmentData(escapedText.getBytes(StandardCharsets.ISO_8859_1));
+			ECIMetrics.parsed(length, segments, true);
+			return segments;
+		}
+		
+		if (!ECIEscaping.isDesignator(escapedText, 0))
+		{
+			seg = new ECISegment();
+			segments.add(seg);
+			seg.ECIValue = 0;
+		}
+		
+		while (ii < length)
+		{
+			if ('\\' != escapedText.charAt(ii))
+			{
+				++ii;
+				continue;
+			}
+			
+			if ((ii + 1 < length) && ('\\' == escapedText.charAt(ii + 1)))
+			{
+				// escaped backslash, kept in the segment text and un-escaped by setSegmentData
+				ii += 2;
+				continue;
+			}
+			
+			if (ECIEscaping.isDesignator(escapedText, ii))
+			{
+				if (null != seg)
+				{
+					seg.setSegmentText(escapedText.substring(segStart, ii));
+				}
+				
+				seg = new ECISegment();
+				segments.add(seg);
+				seg.setECIValue(ECIEscaping.parseDigits(escapedText, ii + 1));
+				
+				ii += ECIEscaping.DESIGNATOR_LENGTH;
+				segStart = ii;
+				continue;
+			}
+			
+			++ii;
+		}
+		
+		if (null != seg)
+		{
+			seg.setSegmentText(escapedText.substring(segStart, length));
+		}
+		
+		ECIMetrics.parsed(length, segments, false);
+		
+		return segments;
 	}
 	
-	/** Parse ECI escaped byte array into List of {@link ECISegment}
+	/** Parse ECI escaped byte array into List of {@link ECISegment}.
+	 * If escapedData contains no backslash, the only segment is backed by escapedData itself without copying.
 	 * @param escapedData the ECI escaped byte array
 	 * @return List of {@link ECISegment} parsed by using ECI protocol
 	 */
 	public static List<ECISegment> parseECI(byte[] escapedData)
 	{
-		List<ECISegment> segments = new ArrayList<ECISegment>();
+		return parseECI(escapedData, false);
+	}
+	
+	/** Parse ECI escaped byte array into List of {@link ECISegment}, optionally without copying the segment data.
+	 * In the zero-copy mode every {@link ECISegment} is a slice (offset and length) of escapedData, 
+	 * which is un-escaped only when {@link ECISegment#getSegmentData()} is called, 
+	 * so escapedData must not be modified while the segments are in use. 
+	 * In both modes, if escapedData contains no backslash, the only segment is backed by escapedData itself without copying.
+	 * @param escapedData the ECI escaped byte array
+	 * @param zeroCopy true to return the segments as slices of escapedData, false to copy the segment data
+	 * @return List of {@link ECISegment} parsed by using ECI protocol
+	 */
+	public static List<ECISegment> parseECI(byte[] escapedData, boolean zeroCopy)
+	{
+		ECISegmentList segments = new ECISegmentList();
+
+		parseECI(escapedData, zeroCopy, segments);
+
+		return segments;
+	}
+	
+	/** Parse ECI escaped byte array into a caller-owned reusable {@link ECISegmentList}, in the zero-copy mode. 
+	 * The segments already in the list are recycled, so after warm-up parsing allocates nothing. 
+	 * Every {@link ECISegment} is a slice of escapedData, see {@link #parseECI(byte[], boolean)}, 
+	 * and its data can be un-escaped into a caller-owned buffer by {@link ECISegment#copySegmentData(byte[], int)}.
+	 * @param escapedData the ECI escaped byte array
+	 * @param segments the list to fill with the {@link ECISegment}s parsed by using ECI protocol
+	 * @return segments
+	 */
+	public static ECISegmentList parseECI(byte[] escapedData, ECISegmentList segments)
+	{
+		segments.recycle();
 
-        if (null != escapedData)
-        {
-            ECISegment seg = null;
-            List<Byte> segDataList = new ArrayList<Byte>();
-            byte[] segData = null;
-            
-            int posSegment = -1;
-
-            int ii = 0, jj;
-
-            boolean isECI = false;
-
-            if ((escapedData.length >= 7) && (0x5C == escapedData[0]))
-            {
-                isECI = true;
-                for (ii = 1;ii < 7;++ii)
-                {
-                    if ((escapedData[ii] < 0x30) || (escapedData[ii] > 0x39))
-                    {
-                        isECI = false;
-                        break;
-                    }
-                }
-            }
-
-            if (!isECI)
-            {
-                seg = new ECISegment();
-                segments.add(seg);
-                seg.ECIValue = 0;
-                segDataList.clear();
-                ++posSegment;
-            }
-
-            for (ii = 0; ii < escapedData.length; ++ii)
-            {
-                isECI = false;
-
-                if ((0x5C == escapedData[ii]) && (ii + 6 < escapedData.length))
-                {
-                    isECI = true;
-
-                    for (jj = 1;jj < 7;++jj)
-                    {
-                        if ((escapedData[ii + jj] < 0x30) || (escapedData[ii + jj] > 0x39))
-                        {
-                            isECI = false;
-                            break;
-                        }
-                    }
-
-
-                    if (isECI)
-                    {
-                        if (posSegment >= 0)
-                        {
-                        	segData = new byte[segDataList.size()];
-                        	for (jj = 0;jj < segDataList.size();++jj)
-                        	{
-                        		segData[jj] = segDataList.get(jj);
-                        	}
-                            seg.setSegmentData(segData);
-                        }
-
-                        seg = new ECISegment();
-                        segments.add(seg);
-                        segDataList.clear();
-                        ++posSegment;
-
-                        try {
-							seg.setECI(new String(escapedData, ii + 1, 6, "ISO-8859-1"));
-						} catch (UnsupportedEncodingException e) {
-							;
-						}
-
-                        ii += 6;
-                        continue;
-                    }
-                }
-
-                segDataList.add(escapedData[ii]);
-            }
-
-            if (posSegment >= 0)
-            {
-            	segData = new byte[segDataList.size()];
-            	for (jj = 0;jj < segDataList.size();++jj)
-            	{
-            		segData[jj] = segDataList.get(jj);
-            	}
-                seg.setSegmentData(segData);
-            }
-        }
-
-        return segments;
+		parseECI(escapedData, true, segments);
+
+		return segments;
+	}
+	
+	/** Parse a range of ECI escaped byte array into a caller-owned reusable {@link ECISegmentList}, in the zero-copy mode, 
+	 * like {@link #parseECI(byte[], ECISegmentList)} on the bytes of the range
+	 * @param escapedData the byte array containing the ECI escaped data
+	 * @param offset the start of the range
+	 * @param length the length of the range
+	 * @param segments the list to fill with the {@link ECISegment}s parsed by using ECI protocol
+	 * @return segments
+	 */
+	public static ECISegmentList parseECI(byte[] escapedData, int offset, int length, ECISegmentList segments)
+	{
+		if ((offset < 0) || (length < 0) || (offset + length > escapedData.length))
+		{
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + escapedData.length);
+		}
+
+		segments.recycle();
+
+		int end = offset + length;
+
+		if (ECIEscaping.indexOfBackslash(escapedData, offset, end) >= end)
+		{
+			// no ECI designator and nothing to un-escape, the range is the data of the default segment
+			ECISegment seg = segments.addSegment();
+			seg.ECIValue = 0;
+			seg.setSegmentData(escapedData, offset, length, true);
+			ECIMetrics.parsed(length, segments, true);
+		}
+		else
+		{
+			parseECI(escapedData, offset, end, true, segments);
+			ECIMetrics.parsed(length, segments, false);
+		}
+
+		return segments;
+	}
+	
+	/** Parse ECI escaped byte array into {@link ECISegment}s added to the list
+	 * @param escapedData the ECI escaped byte array
+	 * @param zeroCopy true to set the segments as slices of escapedData, false to copy the segment data
+	 * @param segments the list to add the parsed {@link ECISegment}s to
+	 */
+	private static void parseECI(byte[] escapedData, boolean zeroCopy, ECISegmentList segments)
+	{
+		if (null != escapedData)
+		{
+			if (ECIEscaping.indexOfBackslash(escapedData, 0, escapedData.length) >= escapedData.length)
+			{
+				// no ECI designator and nothing to un-escape, the payload is the data of the default segment
+				ECISegment seg = segments.addSegment();
+				seg.ECIValue = 0;
+				seg.setUnescapedSegmentData(escapedData);
+				ECIMetrics.parsed(escapedData.length, segments, true);
+			}
+			else
+			{
+				parseECI(escapedData, 0, escapedData.length, zeroCopy, segments);
+				ECIMetrics.parsed(escapedData.length, segments, false);
+			}
+		}
+	}
+	
+	/** Parse the range of ECI escaped byte array into {@link ECISegment}s
+	 * @param escapedData the ECI escaped byte array
+	 * @param offset the start of the range
+	 * @param end the end (exclusive) of the range
+	 * @param zeroCopy true to set the segments as slices of escapedData, false to copy the segment data
+	 * @param segments the list to add the parsed {@link ECISegment}s to
+	 */
+	static void parseECI(byte[] escapedData, int offset, int end, boolean zeroCopy, ECISegmentList segments)
+	{
+		ECISegment seg = null;
+
+		int segStart = offset;
+		int ii = offset;
+
+		if (!ECIEscaping.isDesignator(escapedData, offset, end))
+		{
+			seg = segments.addSegment();
+			seg.ECIValue = 0;
+		}
+
+		while (ii < end)
+		{
+			ii = ECIEscaping.indexOfBackslash(escapedData, ii, end);
+
+			if (ii >= end)
+			{
+				break;
+			}
+
+			if ((ii + 1 < end) && (ECIEscaping.BACKSLASH == escapedData[ii + 1]))
+			{
+				// escaped backslash, un-escaped with the segment data
+				ii += 2;
+				continue;
+			}
+
+			if (ECIEscaping.isDesignator(escapedData, ii, end))
+			{
+				if (null != seg)
+				{
+					seg.setSegmentData(escapedData, segStart, ii - segStart, zeroCopy);
+				}
+
+				seg = segments.addSegment();
+				seg.setECIValue(ECIEscaping.parseDigits(escapedData, ii + 1));
+
+				ii += ECIEscaping.DESIGNATOR_LENGTH;
+				segStart = ii;
+				continue;
+			}
+
+			++ii;
+		}
+
+		if (null != seg)
+		{
+			seg.setSegmentData(escapedData, segStart, end - segStart, zeroCopy);
+		}
+	}
+	
+	/** Parse and validate ECI escaped byte array, without throwing for malformed payloads. 
+	 * The payload is checked for unescaped backslashes, truncated ECI designators, ECIs without supported charset
+	 * and segment data malformed in the charset of its ECI, and the first problem is reported by status and byte offset.
+	 * @param escapedData the ECI escaped byte array
+	 * @return the {@link ECIParseResult} with the segments parsed in the zero-copy mode and the first problem found
+	 */
+	public static ECIParseResult validateECI(byte[] escapedData)
+	{
+		return ECIValidator.validate(escapedData);
+	}
+	
+	/** Parse ECI escaped byte array by reporting the ECIs and the un-escaped data runs to the handler, 
+	 * no {@link ECISegment} or List is created. The handler may stop parsing early by returning false.
+	 * The first segment has the ECI 0 if escapedData does not start with an ECI designator, 
+	 * and the segments reported are the same as {@link #parseECI(byte[])}.
+	 * @param escapedData the ECI escaped byte array
+	 * @param handler the handler of the ECIs and the un-escaped data runs
+	 * @return true if escapedData is parsed to the end, false if parsing was stopped by the handler
+	 */
+	public static boolean parseECI(byte[] escapedData, final ECISegmentHandler handler)
+	{
+		if (null == escapedData)
+		{
+			return true;
+		}
+
+		if (ECIEscaping.indexOfBackslash(escapedData, 0, escapedData.length) >= escapedData.length)
+		{
+			// no ECI designator and nothing to un-escape, the payload is the data of the default segment
+			return handler.onECI(0) && ((0 == escapedData.length) || handler.onData(escapedData, 0, escapedData.length));
+		}
+
+		final boolean[] stopped = { false };
+		ECIScanner scanner = new ECIScanner() {
+
+			@Override
+			boolean onECI(int eciValue) {
+				stopped[0] = !handler.onECI(eciValue);
+				return !stopped[0];
+			}
+
+			@Override
+			boolean onData(byte[] data, int offset, int length) {
+				stopped[0] = !handler.onData(data, offset, length);
+				return !stopped[0];
+			}
+		};
+
+		scanner.scan(escapedData, 0, escapedData.length);
+		if (!stopped[0])
+		{
+			scanner.finish();
+		}
+
+		return !stopped[0];
+	}
+	
+	/** Parse the remaining bytes of ECI escaped byte buffer into List of {@link ECISegment}.
+	 * The bytes between the position and the limit are parsed in place, for both heap and direct buffers, 
+	 * and the position is moved to the limit. The segment data is copied out, so the buffer can be reused after parsing.
+	 * @param escapedData the ECI escaped byte buffer
+	 * @return List of {@link ECISegment} parsed by using ECI protocol
+	 */
+	public static List<ECISegment> parseECI(ByteBuffer escapedData)
+	{
+		ECISegmentList segments = new ECISegmentList();
+
+		if (null != escapedData)
+		{
+			int offset = escapedData.position();
+			int end = escapedData.limit();
+
+			if (escapedData.hasArray())
+			{
+				parseECI(escapedData.array(), escapedData.arrayOffset() + offset, escapedData.arrayOffset() + end, false, segments);
+			}
+			else
+			{
+				parseECI(escapedData.duplicate(), offset, end, segments);
+			}
+
+			escapedData.position(end);
+			ECIMetrics.parsed(end - offset, segments, false);
+		}
+
+		return segments;
+	}
+	
+	/** Parse the range of ECI escaped byte buffer into {@link ECISegment}s, the segment data is copied out.
+	 * @param escapedData the ECI escaped byte buffer, its position is moved while parsing
+	 * @param offset the absolute start of the range
+	 * @param end the absolute end (exclusive) of the range
+	 * @param segments the list to add the parsed {@link ECISegment}s to
+	 */
+	private static void parseECI(ByteBuffer escapedData, int offset, int end, final ECISegmentList segments)
+	{
+		new ECIBufferScanner() {
+			@Override
+			void onSegment(int eciValue, ByteBuffer data, int segOffset, int segEnd, int escapedPairs) {
+				ECISegment seg = segments.addSegment();
+
+				seg.ECIValue = eciValue;
+				seg.setUnescapedSegmentData(ECIEscaping.unescape(data, segOffset, segEnd - segOffset));
+			}
+		}.scan(escapedData, offset, end);
 	}
 	
 	/** Convert List of {@link ECISegment} into ECI escaped transmit data.
@@ -181,76 +373,129 @@ public class AIMECI {
 	 * @throws ECIException when ECI escaped transmit data is not correct.
 	 */
 	public static byte[] ToECITransmitData(List<ECISegment> segments) throws ECIException
-    {
-		byte[] transmitData = null;
+	{
+		int size = encodedLength(segments);
+		
+		if (size <= 0)
+		{
+			return null;
+		}
+		
+		byte[] transmitData = new byte[size];
 		
+		encodeTo(segments, transmitData, 0);
+		
+		return transmitData;
+	}
+	
+	/** Get the exact length of the ECI escaped transmit data of List of {@link ECISegment}, without allocating
+	 * @param segments List of {@link ECISegment}
+	 * @return the length of the ECI escaped transmit data
+	 * @throws ECIException when ECI escaped transmit data is not correct.
+	 */
+	public static int encodedLength(List<ECISegment> segments) throws ECIException
+	{
+		checkSegmentECIs(segments);
+		
+		return transmitDataLength(segments);
+	}
+	
+	/** Write List of {@link ECISegment} as ECI escaped transmit data into a caller-supplied byte array in one pass, 
+	 * every segment is escaped straight into dst without allocating. {@link #encodedLength(List)} gives the room needed.
+	 * @param segments List of {@link ECISegment}
+	 * @param dst the byte array to write the ECI escaped transmit data into
+	 * @param offset the position in dst to write to
+	 * @return the count of bytes written, or -1 if the room of dst is not enough, when dst may be partially written
+	 * @throws ECIException when ECI escaped transmit data is not correct.
+	 */
+	public static int encodeTo(List<ECISegment> segments, byte[] dst, int offset) throws ECIException
+	{
+		checkSegmentECIs(segments);
+		
+		int pos = offset;
+		
+		for (ECISegment seg : segments)
+		{
+			boolean eci = hasECI(seg);
+			int size = seg.escapedSegmentDataLength();
+			
+			if (pos + (eci ? ECIEscaping.DESIGNATOR_LENGTH : 0) + size > dst.length)
+			{
+				return -1;
+			}
+			
+			if (eci)
+			{
+				pos += ECIEscaping.writeDesignator(seg.getECIValue(), dst, pos);
+			}
+			
+			pos += seg.writeEscapedSegmentData(dst, pos);
+		}
+		
+		ECIMetrics.encoded(segments, pos - offset);
+		
+		return pos - offset;
+	}
+	
+	/** Write List of {@link ECISegment} as ECI escaped transmit data into a byte buffer, for both heap and direct buffers.
+	 * The transmit data is written at the position of the buffer, and the position is moved past the written bytes. 
+	 * If the remaining of the buffer is not enough, nothing is written.
+	 * @param segments List of {@link ECISegment}
+	 * @param transmitData the byte buffer to write the ECI escaped transmit data into
+	 * @return the count of bytes written, or -1 if the remaining of the buffer is not enough
+	 * @throws ECIException when ECI escaped transmit data is not correct.
+	 */
+	public static int writeECITransmitData(List<ECISegment> segments, ByteBuffer transmitData) throws ECIException
+	{
+		checkSegmentECIs(segments);
+		
+		int size = transmitDataLength(segments);
+		
+		if (size > transmitData.remaining())
+		{
+			return -1;
+		}
+		
+		for (ECISegment seg : segments)
+		{
+			byte[] segmentData = seg.getSegmentData();
+			
+			if (hasECI(seg))
+			{
+				ECIEscaping.putDesignator(seg.getECIValue(), transmitData);
+			}
+			
+			if (null != segmentData)
+			{
+				ECIEscaping.escape(segmentData, 0, segmentData.length, transmitData);
+			}
+		}
+		
+		ECIMetrics.encoded(segments, size);
+		
+		return size;
+	}
+	
+	/** Get the exact length of the ECI escaped transmit data
+	 * @param segments List of {@link ECISegment}
+	 * @return the length of the ECI escaped transmit data
+	 */
+	private static int transmitDataLength(List<ECISegment> segments)
+	{
 		int size = 0;
 		
-        boolean isStart = true;
-
-        int pos = 0;
-        
-        for (ECISegment seg : segments)
-        {
-            byte[] eciSequence = seg.getEscapeECISequence();
-            byte[] dataSequence = seg.getEscapedSegmentData();
-
-            if ((!isStart) && (null == eciSequence))
-            {
-                throw new ECIException("ECI error: no set ECI in one eci segment");
-            }
-
-            if (null != eciSequence)
-            {
-            	size += eciSequence.length;
-            }
-
-            if (null != dataSequence)
-            {
-            	size += dataSequence.length;
-            }
-
-            if (isStart)
-            {
-                isStart = false;
-            }
-        }
-        
-        if (size > 0)
-        {
-        	transmitData = new byte[size];
-        	isStart = true;
-        	for (ECISegment seg : segments)
-            {
-                byte[] eciSequence = seg.getEscapeECISequence();
-                byte[] dataSequence = seg.getEscapedSegmentData();
-
-                if ((!isStart) && (null == eciSequence))
-                {
-                    throw new ECIException("ECI error: no set ECI in one eci segment");
-                }
-
-                if (null != eciSequence)
-                {
-                	System.arraycopy(eciSequence, 0, transmitData, pos, eciSequence.length);
-                	pos += eciSequence.length;
-                }
-
-                if (null != dataSequence)
-                {
-                	System.arraycopy(dataSequence, 0, transmitData, pos, dataSequence.length);
-                	pos += dataSequence.length;
-                }
-
-                if (isStart)
-                {
-                    isStart = false;
-                }
-            }
-        }
-        
-        return transmitData;
-    }
+		for (ECISegment seg : segments)
+		{
+			if (hasECI(seg))
+			{
+				size += ECIEscaping.DESIGNATOR_LENGTH;
+			}
+			
+			size += seg.escapedSegmentDataLength();
+		}
+		
+		return size;
+	}
 	
 	/** Convert List of {@link ECISegment} into ECI escaped transmit text.
 	 * @param segments List of {@link ECISegment}
@@ -258,35 +503,238 @@ public class AIMECI {
 	 * @throws ECIException when ECI escaped transmit data is not correct.
 	 */
 	public static String ToECIEscapedTransmitText(List<ECISegment> segments) throws ECIException
-    {
-		String text = "";
+	{
+		CharBuffer text = escapedTransmitText(segments);
+		
+		ECIMetrics.encoded(segments, text.position());
 		
+		return new String(text.array(), 0, text.position());
+	}
+	
+	/** Append the ECI escaped transmit text of List of {@link ECISegment} to a StringBuilder.
+	 * @param segments List of {@link ECISegment}
+	 * @param text the StringBuilder to append the ECI escaped transmit text to
+	 * @throws ECIException when ECI escaped transmit data is not correct, and nothing is appended.
+	 */
+	public static void appendECIEscapedTransmitText(List<ECISegment> segments, StringBuilder text) throws ECIException
+	{
+		CharBuffer escapedText = escapedTransmitText(segments);
+		
+		text.append(escapedText.array(), 0, escapedText.position());
+		
+		ECIMetrics.encoded(segments, escapedText.position());
+	}
+	
+	/** Append the ECI escaped transmit text of List of {@link ECISegment} to an Appendable.
+	 * @param segments List of {@link ECISegment}
+	 * @param text the Appendable to append the ECI escaped transmit text to
+	 * @throws ECIException when ECI escaped transmit data is not correct, and nothing is appended, 
+	 * or when the Appendable fails.
+	 */
+	public static void appendECIEscapedTransmitText(List<ECISegment> segments, Appendable text) throws ECIException
+	{
+		CharBuffer escapedText = escapedTransmitText(segments);
+		
+		try
+		{
+			escapedText.flip();
+			text.append(escapedText);
+		}
+		catch (IOException ex)
+		{
+			ECIMetrics.encodeFailed(-1);
+			throw new ECIException("ECI error: fail to append the ECI escaped transmit text", ex);
+		}
+		
+		ECIMetrics.encoded(segments, escapedText.limit());
+	}
+	
+	/** Check if the segment has a valid ECI
+	 * @param seg the {@link ECISegment}
+	 * @return true if the ECI of the segment is in [0, 999999]
+	 */
+	static boolean hasECI(ECISegment seg)
+	{
+		return ((seg.ECIValue >= 0) && (seg.ECIValue <= 999999));
+	}
+	
+	/** Check that every segment except the first one has a valid ECI
+	 * @param segments List of {@link ECISegment}
+	 * @throws ECIException when one segment except the first one has no valid ECI
+	 */
+	static void checkSegmentECIs(List<ECISegment> segments) throws ECIException
+	{
 		boolean isStart = true;
 		
 		for (ECISegment seg : segments)
-        {
-			String eciSequence = seg.getECI();
-			String dataSequence = seg.getEscapedSegmentText();
-
-            if ((!isStart) && (eciSequence.length() <= 0))
-            {
-                throw new ECIException("ECI error: no set ECI in one eci segment");
-            }
-
-            if (eciSequence.length() > 0)
-            {
-            	text += "\\" + eciSequence;
-            }
-            text += dataSequence;
-            
-            if (isStart)
-            {
-                isStart = false;
-            }
-        }
+		{
+			if ((!isStart) && (!hasECI(seg)))
+			{
+				ECIMetrics.encodeFailed(-1);
+				throw new ECIException("ECI error: no set ECI in one eci segment");
+			}
+			isStart = false;
+		}
+	}
+	
+	/** Write the ECI escaped transmit text of List of {@link ECISegment} into one char array,
+	 * the designators and the escaped data of every segment decoded as by {@link ECISegment#getEscapedSegmentText()}, 
+	 * without a String per segment.
+	 * The array is sized by the length of the ECI escaped transmit data, every escaped byte decodes to at most one char 
+	 * for the registered charsets, and it grows for a charset which does not.
+	 * @param segments List of {@link ECISegment}
+	 * @return the char buffer over the array, the text is from 0 to its position
+	 * @throws ECIException when one segment except the first one has no valid ECI
+	 */
+	private static CharBuffer escapedTransmitText(List<ECISegment> segments) throws ECIException
+	{
+		checkSegmentECIs(segments);
+		
+		ECICoders coders = ECICoders.get();
+		CharBuffer text = CharBuffer.wrap(new char[transmitDataLength(segments)]);
+		byte[] data = null;
+		
+		for (ECISegment seg : segments)
+		{
+			if (hasECI(seg))
+			{
+				text.position(text.position() + ECIEscaping.writeDesignator(seg.getECIValue(), text.array(), text.position()));
+			}
+			
+			int length = seg.escapedSegmentDataLength();
+			
+			if (length <= 0)
+			{
+				continue;
+			}
+			
+			CharsetDecoder decoder = coders.textDecoder(seg.getECIValue());
+			
+			if (null == decoder)
+			{
+				ECIMetrics.decodeFailed(seg.getECIValue());
+				continue;
+			}
+			
+			if ((null == data) || (data.length < length))
+			{
+				data = new byte[length];
+			}
+			seg.writeEscapedSegmentData(data, 0);
+			
+			ByteBuffer in = coders.wrap(data);
+			in.limit(length);
+			
+			while (true)
+			{
+				CoderResult result = decoder.decode(in, text, true);
+				
+				if (!result.isOverflow())
+				{
+					result = decoder.flush(text);
+				}
+				if (!result.isOverflow())
+				{
+					break;
+				}
+				
+				CharBuffer grown = CharBuffer.wrap(Arrays.copyOf(text.array(), text.capacity() * 2 + length));
+				grown.position(text.position());
+				text = grown;
+			}
+		}
 		
 		return text;
-    }
+	}
+	
+	/** Split the text into List of {@link ECISegment} with the minimum ECI escaped transmit data length, 
+	 * choosing the charset of every segment from all assigned ECIs. 
+	 * The length counts the ECI designator of every segment and the escaped backslashes.
+	 * @param text the text to encode
+	 * @return List of {@link ECISegment}, each with its ECI set, empty if the text is empty
+	 * @throws ECIException when a character can not be encoded by any assigned ECI
+	 */
+	public static List<ECISegment> segmentECI(String text) throws ECIException
+	{
+		return new ECIOptimalEncoder(null).encode(text);
+	}
+	
+	/** Split the text into List of {@link ECISegment} with the minimum ECI escaped transmit data length, 
+	 * choosing the charset of every segment from the candidate ECIs.
+	 * The length counts the ECI designator of every segment and the escaped backslashes.
+	 * @param text the text to encode
+	 * @param eciValues the candidate ECI values, the ECIs whose charsets are not supported are ignored
+	 * @return List of {@link ECISegment}, each with its ECI set, empty if the text is empty
+	 * @throws ECIException when a character can not be encoded by any candidate ECI
+	 */
+	public static List<ECISegment> segmentECI(String text, int[] eciValues) throws ECIException
+	{
+		return new ECIOptimalEncoder(eciValues).encode(text);
+	}
+	
+	/** Convert the text into the shortest ECI escaped transmit data, see {@link #segmentECI(String)}.
+	 * @param text the text to encode
+	 * @return ECI escaped transmit data, null if the text is empty
+	 * @throws ECIException when a character can not be encoded by any assigned ECI
+	 */
+	public static byte[] ToOptimalECITransmitData(String text) throws ECIException
+	{
+		return ToECITransmitData(segmentECI(text));
+	}
+	
+	/** Parse a batch of ECI escaped byte arrays in parallel on the common fork-join pool.
+	 * @param payloads the ECI escaped byte arrays
+	 * @return the List of {@link ECISegment} of every payload in {@link ECIBatchResult}, in the order of payloads. 
+	 * A failed payload has its error in the result and does not abort the batch.
+	 * @throws InterruptedException when the current thread is interrupted while waiting for the batch
+	 */
+	public static List<ECIBatchResult<List<ECISegment>>> parseAll(List<byte[]> payloads) throws InterruptedException
+	{
+		return new ECIBatch.Parse().run(payloads, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+	}
+	
+	/** Parse a batch of ECI escaped byte arrays in parallel on a caller-supplied executor.
+	 * @param payloads the ECI escaped byte arrays
+	 * @param executor the executor to run the parsing tasks
+	 * @param parallelism the count of threads of the executor, used to split the batch
+	 * @return the List of {@link ECISegment} of every payload in {@link ECIBatchResult}, in the order of payloads. 
+	 * A failed payload has its error in the result and does not abort the batch.
+	 * @throws InterruptedException when the current thread is interrupted while waiting for the batch
+	 */
+	public static List<ECIBatchResult<List<ECISegment>>> parseAll(List<byte[]> payloads, Executor executor, int parallelism) throws InterruptedException
+	{
+		return new ECIBatch.Parse().run(payloads, executor, parallelism);
+	}
+	
+	/** Decode a batch of ECI escaped byte arrays into text in parallel on the common fork-join pool.
+	 * The text of a payload is the text of all its segments, see {@link ECISegment#getSegmentText()}, 
+	 * and the data of an unassigned ECI, such as a payload without designator, is decoded as ISO-8859-1.
+	 * A payload with data of an ECI whose charset is not supported by the runtime fails with {@link ECIException}.
+	 * @param payloads the ECI escaped byte arrays
+	 * @return the text of every payload in {@link ECIBatchResult}, in the order of payloads. 
+	 * A failed payload has its error in the result and does not abort the batch.
+	 * @throws InterruptedException when the current thread is interrupted while waiting for the batch
+	 */
+	public static List<ECIBatchResult<String>> decodeAll(List<byte[]> payloads) throws InterruptedException
+	{
+		return new ECIBatch.Decode().run(payloads, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+	}
+	
+	/** Decode a batch of ECI escaped byte arrays into text in parallel on a caller-supplied executor.
+	 * The text of a payload is the text of all its segments, see {@link ECISegment#getSegmentText()}, 
+	 * and the data of an unassigned ECI, such as a payload without designator, is decoded as ISO-8859-1.
+	 * A payload with data of an ECI whose charset is not supported by the runtime fails with {@link ECIException}.
+	 * @param payloads the ECI escaped byte arrays
+	 * @param executor the executor to run the decoding tasks
+	 * @param parallelism the count of threads of the executor, used to split the batch
+	 * @return the text of every payload in {@link ECIBatchResult}, in the order of payloads. 
+	 * A failed payload has its error in the result and does not abort the batch.
+	 * @throws InterruptedException when the current thread is interrupted while waiting for the batch
+	 */
+	public static List<ECIBatchResult<String>> decodeAll(List<byte[]> payloads, Executor executor, int parallelism) throws InterruptedException
+	{
+		return new ECIBatch.Decode().run(payloads, executor, parallelism);
+	}
 	
 	/** All supported ECIs and their information in the type of {@link ECIInfo}
 	 * @return A array of all supported ECI information in the type of  {@link ECIInfo}
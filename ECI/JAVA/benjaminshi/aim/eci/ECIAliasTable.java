@@ -0,0 +1,238 @@
+package benjaminshi.aim.eci;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The immutable table resolving charset names and aliases to ECIs ignoring case and punctuation,
+ * so "UTF-8", "utf8" and "Utf_8" are the same alias. The aliases are normalised by lowering the ASCII letters
+ * and dropping every ASCII character other than letters and digits, and are stored in a minimal perfect-hash table
+ * built by hash and displace: the first hash selects a bucket, and the displacement of the bucket selects the slot.
+ * A lookup normalises on the fly while hashing and comparing, so it allocates nothing.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+final class ECIAliasTable {
+
+	/** the displacement of every bucket */
+	private final int[] displacements;
+
+	/** the normalised alias of every slot */
+	private final String[] keys;
+
+	/** the ECI of every slot */
+	private final int[] values;
+
+	/** Build the table from the charset names and aliases,
+	 * the aliases normalised to the same key for different ECIs are left out as ambiguous
+	 * @param aliases the ECI of every charset name or alias
+	 */
+	ECIAliasTable(Map<String, Integer> aliases)
+	{
+		Map<String, Integer> normalised = new HashMap<String, Integer>();
+		List<String> ambiguous = new ArrayList<String>();
+
+		for (Map.Entry<String, Integer> entry : aliases.entrySet())
+		{
+			String key = normalise(entry.getKey());
+			int eci = entry.getValue();
+
+			if ((key.length() <= 0) || (eci < 0))
+			{
+				continue;
+			}
+
+			Integer previous = normalised.put(key, eci);
+
+			if ((null != previous) && (previous != eci))
+			{
+				ambiguous.add(key);
+			}
+		}
+		for (String key : ambiguous)
+		{
+			normalised.remove(key);
+		}
+
+		int size = Math.max(1, normalised.size());
+
+		displacements = new int[size];
+		keys = new String[size];
+		values = new int[size];
+
+		// place the largest buckets first, while most slots are free
+		List<List<String>> buckets = new ArrayList<List<String>>();
+		for (int ii = 0;ii < size;++ii)
+		{
+			buckets.add(new ArrayList<String>());
+		}
+		for (String key : normalised.keySet())
+		{
+			buckets.get(index(hash(key, 0), size)).add(key);
+		}
+
+		Integer[] order = new Integer[size];
+		for (int ii = 0;ii < size;++ii)
+		{
+			order[ii] = ii;
+		}
+		final List<List<String>> sizes = buckets;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return sizes.get(b).size() - sizes.get(a).size();
+			}
+		});
+
+		boolean[] used = new boolean[size];
+		int[] slots = new int[size];
+
+		for (int bucket : order)
+		{
+			List<String> members = buckets.get(bucket);
+
+			if (members.isEmpty())
+			{
+				break;
+			}
+
+			Collections.sort(members);
+
+			for (int seed = 1;;++seed)
+			{
+				boolean placed = true;
+
+				for (int ii = 0;ii < members.size();++ii)
+				{
+					int slot = index(hash(members.get(ii), seed), size);
+
+					for (int jj = 0;jj < ii;++jj)
+					{
+						placed &= (slots[jj] != slot);
+					}
+					placed &= (!used[slot]);
+					slots[ii] = slot;
+					if (!placed)
+					{
+						break;
+					}
+				}
+
+				if (placed)
+				{
+					displacements[bucket] = seed;
+					for (int ii = 0;ii < members.size();++ii)
+					{
+						used[slots[ii]] = true;
+						keys[slots[ii]] = members.get(ii);
+						values[slots[ii]] = normalised.get(members.get(ii));
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	/** get the ECI of the charset name or alias, ignoring case and punctuation
+	 * @param charset the charset name or alias
+	 * @return the value of the ECI, -1 if the alias is not in the table
+	 */
+	int lookup(CharSequence charset)
+	{
+		int size = keys.length;
+		int slot = index(hash(charset, displacements[index(hash(charset, 0), size)]), size);
+		String key = keys[slot];
+
+		return ((null != key) && matches(charset, key)) ? values[slot] : -1;
+	}
+
+	/** normalise the charset name or alias
+	 * @param charset the charset name or alias
+	 * @return the lowered ASCII letters, the digits and the non-ASCII characters of charset
+	 */
+	static String normalise(CharSequence charset)
+	{
+		StringBuilder key = new StringBuilder(charset.length());
+
+		for (int ii = 0;ii < charset.length();++ii)
+		{
+			char c = normalise(charset.charAt(ii));
+
+			if (0 != c)
+			{
+				key.append(c);
+			}
+		}
+
+		return key.toString();
+	}
+
+	/** normalise a character
+	 * @return the lowered ASCII letter, the digit or the non-ASCII character, 0 if the character is dropped
+	 */
+	private static char normalise(char c)
+	{
+		if ((c >= 'A') && (c <= 'Z'))
+		{
+			return (char) (c + ('a' - 'A'));
+		}
+		if (((c >= 'a') && (c <= 'z')) || ((c >= '0') && (c <= '9')) || (c >= 0x80))
+		{
+			return c;
+		}
+		return 0;
+	}
+
+	/** hash the normalised characters of the alias with the seed, FNV-1a with a final mix */
+	private static int hash(CharSequence charset, int seed)
+	{
+		int h = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+
+		for (int ii = 0;ii < charset.length();++ii)
+		{
+			char c = normalise(charset.charAt(ii));
+
+			if (0 != c)
+			{
+				h = (h ^ c) * 0x01000193;
+			}
+		}
+
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+
+		return h;
+	}
+
+	private static int index(int hash, int size)
+	{
+		return (int) (((hash & 0xFFFFFFFFL) * size) >>> 32);
+	}
+
+	/** check if the normalised characters of the alias are the key */
+	private static boolean matches(CharSequence charset, String key)
+	{
+		int pos = 0;
+
+		for (int ii = 0;ii < charset.length();++ii)
+		{
+			char c = normalise(charset.charAt(ii));
+
+			if (0 != c)
+			{
+				if ((pos >= key.length()) || (key.charAt(pos) != c))
+				{
+					return false;
+				}
+				++pos;
+			}
+		}
+
+		return (pos == key.length());
+	}
+}
@@ -0,0 +1,242 @@
+package benjaminshi.aim.eci;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** The helper class to process a batch of ECI escaped payloads in parallel.
+ * The batch is split into contiguous chunks, each chunk is processed by one task of the executor, 
+ * and the results are stored by index so they come back in input order.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ * @param <T> the type of the result value of one payload
+ */
+abstract class ECIBatch<T> {
+
+	/** the count of chunks per worker, to balance payloads of different sizes */
+	private static final int CHUNKS_PER_WORKER = 4;
+
+	/** Process one payload, called by the worker threads
+	 * @param payload the ECI escaped payload
+	 * @return the result value
+	 * @throws Exception when the payload fails
+	 */
+	abstract T process(byte[] payload) throws Exception;
+
+	/** Process all payloads with the executor and wait for them.
+	 * On a {@link ForkJoinPool} the chunks are fork-join tasks, run and joined by the calling worker itself when it is a worker of the pool,
+	 * so a batch started inside a task of the pool never waits for a slot held by its own caller.
+	 * On other executors the wait is a {@link ForkJoinPool#managedBlock} so a calling fork-join worker is compensated.
+	 * @param payloads the ECI escaped payloads
+	 * @param executor the executor to run the tasks
+	 * @param parallelism the count of workers of the executor
+	 * @return the results, in the order of payloads
+	 * @throws InterruptedException when the current thread is interrupted while waiting
+	 * @throws Error the first {@link Error} thrown by a payload, after the whole batch has finished and recorded it in the result of the payload
+	 */
+	final List<ECIBatchResult<T>> run(List<byte[]> payloads, Executor executor, int parallelism) throws InterruptedException
+	{
+		final byte[][] items = payloads.toArray(new byte[payloads.size()][]);
+		final ECIBatchResult<T>[] results = newResults(items.length);
+		final AtomicReference<Error> error = new AtomicReference<Error>();
+
+		int chunks = Math.max(1, Math.min(items.length, Math.max(1, parallelism) * CHUNKS_PER_WORKER));
+		List<Chunk> tasks = new ArrayList<Chunk>(chunks);
+
+		for (int ii = 0;ii < chunks;++ii)
+		{
+			tasks.add(new Chunk(items, results, error, (int)((long)items.length * ii / chunks), (int)((long)items.length * (ii + 1) / chunks)));
+		}
+
+		if (executor instanceof ForkJoinPool)
+		{
+			final List<Chunk> forked = tasks;
+			ForkJoinPool pool = (ForkJoinPool) executor;
+
+			if (ForkJoinTask.getPool() == pool)
+			{
+				ForkJoinTask.invokeAll(forked);
+			}
+			else
+			{
+				pool.invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						ForkJoinTask.invokeAll(forked);
+					}
+				});
+			}
+		}
+		else
+		{
+			final CountDownLatch latch = new CountDownLatch(chunks);
+
+			for (final Chunk task : tasks)
+			{
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try
+						{
+							task.compute();
+						}
+						finally
+						{
+							latch.countDown();
+						}
+					}
+				});
+			}
+
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean block() throws InterruptedException {
+					latch.await();
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return (0 == latch.getCount());
+				}
+			});
+		}
+
+		if (null != error.get())
+		{
+			throw error.get();
+		}
+
+		return Arrays.asList(results);
+	}
+
+	/** The task processing a contiguous chunk of the batch
+	 */
+	private final class Chunk extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[][] items;
+
+		private final ECIBatchResult<T>[] results;
+
+		private final AtomicReference<Error> error;
+
+		private final int from;
+
+		private final int to;
+
+		Chunk(byte[][] items, ECIBatchResult<T>[] results, AtomicReference<Error> error, int from, int to) {
+			this.items = items;
+			this.results = results;
+			this.error = error;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			for (int jj = from;jj < to;++jj)
+			{
+				results[jj] = processItem(jj, items[jj], error);
+			}
+		}
+	}
+
+	private ECIBatchResult<T> processItem(int index, byte[] payload, AtomicReference<Error> error)
+	{
+		try
+		{
+			return new ECIBatchResult<T>(index, process(payload), null);
+		}
+		catch (Exception ex)
+		{
+			return new ECIBatchResult<T>(index, null, ex);
+		}
+		catch (Error ex)
+		{
+			// recorded like an exception, and rethrown to the caller once the batch has finished
+			error.compareAndSet(null, ex);
+			return new ECIBatchResult<T>(index, null, ex);
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T> ECIBatchResult<T>[] newResults(int size)
+	{
+		return new ECIBatchResult[size];
+	}
+
+	/** The batch parsing every payload into List of {@link ECISegment}
+	 */
+	static final class Parse extends ECIBatch<List<ECISegment>> {
+		@Override
+		List<ECISegment> process(byte[] payload) {
+			return AIMECI.parseECI(payload);
+		}
+	}
+
+	/** The batch decoding every payload into the text of all its segments, 
+	 * with the scratch buffer and the cached decoders of the worker thread.
+	 * The data of an unassigned ECI, such as a payload without designator, is decoded as ISO-8859-1, 
+	 * and the payload fails if the charset of an assigned ECI with data is not supported by the runtime.
+	 */
+	static final class Decode extends ECIBatch<String> {
+
+		/** the largest capacity of the scratch buffer kept by a worker thread, a larger buffer grown for one payload is dropped after it */
+		private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+		private static final ThreadLocal<CharBuffer[]> SCRATCH = new ThreadLocal<CharBuffer[]>() {
+			@Override
+			protected CharBuffer[] initialValue() {
+				return new CharBuffer[] { CharBuffer.allocate(1024) };
+			}
+		};
+
+		@Override
+		String process(byte[] payload) throws ECIException {
+			CharBuffer[] scratch = SCRATCH.get();
+			CharBuffer text = scratch[0];
+
+			try
+			{
+				text.clear();
+				for (ECISegment seg : AIMECI.parseECI(payload, true))
+				{
+					if ((null == ECICoders.get().textDecoder(seg.getECIValue())) && (seg.getSegmentDataLength() > 0))
+					{
+						ECIMetrics.decodeFailed(seg.getECIValue());
+						throw new ECIException("ECI error: the charset of ECI " + seg.getECIValue() + " is not supported");
+					}
+					while (seg.decodeSegmentText(text, true) < 0)
+					{
+						CharBuffer larger = CharBuffer.allocate(Math.max(text.capacity() * 2, seg.getSliceLength()));
+						text.flip();
+						larger.put(text);
+						text = larger;
+						scratch[0] = text;
+					}
+				}
+				text.flip();
+
+				return text.toString();
+			}
+			finally
+			{
+				if (text.capacity() > MAX_RETAINED_CAPACITY)
+				{
+					scratch[0] = CharBuffer.allocate(1024);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package benjaminshi.aim.eci;
+
+/** The class used to represent the result of one item in a batch processed by 
+ * {@link AIMECI#parseAll(java.util.List)} or {@link AIMECI#decodeAll(java.util.List)}, 
+ * a failure of one item does not abort the batch.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ * @param <T> the type of the result value
+ */
+public class ECIBatchResult<T> {
+	protected int Index = -1;
+
+	protected T Value = null;
+
+	protected Throwable Error = null;
+
+	ECIBatchResult(int index, T value, Throwable error) {
+		Index = index;
+		Value = value;
+		Error = error;
+	}
+
+	/** get the index of the item in the batch
+	 * @return the index of the item in the batch
+	 */
+	public int getIndex() {
+		return Index;
+	}
+
+	/** get the result value of the item
+	 * @return the result value of the item, null if the item failed
+	 */
+	public T getValue() {
+		return Value;
+	}
+
+	/** get the error of the item
+	 * @return the error of the item, null if the item succeeded
+	 */
+	public Throwable getError() {
+		return Error;
+	}
+
+	/** check if the item succeeded
+	 * @return true if the item succeeded
+	 */
+	public boolean isSuccess() {
+		return (null == Error);
+	}
+}
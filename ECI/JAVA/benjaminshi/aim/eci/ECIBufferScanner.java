@@ -0,0 +1,81 @@
+package benjaminshi.aim.eci;
+
+import java.nio.ByteBuffer;
+
+/** The scanner of ECI escaped bytes in a byte buffer, in place for both heap and direct buffers.
+ * Every segment is reported to {@link #onSegment(int, ByteBuffer, int, int, int)} with the range of its escaped data in the buffer,
+ * nothing is copied or un-escaped, so a mapped file can be processed without reading it into the heap.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+abstract class ECIBufferScanner {
+
+	/** Called for every segment in order, the first segment has the ECI 0 if the data does not start with an ECI designator
+	 * @param eciValue the value of the ECI, in [0, 999999]
+	 * @param data the byte buffer being scanned
+	 * @param offset the absolute start of the escaped data of the segment
+	 * @param end the absolute end (exclusive) of the escaped data of the segment
+	 * @param escapedPairs the count of escaped backslash pairs in the range, the un-escaped length is the range length minus it
+	 */
+	abstract void onSegment(int eciValue, ByteBuffer data, int offset, int end, int escapedPairs);
+
+	/** Scan the range of the byte buffer, with absolute gets so the position and limit of data are not used
+	 * @param data the byte buffer
+	 * @param offset the absolute start of the range
+	 * @param end the absolute end (exclusive) of the range
+	 */
+	final void scan(ByteBuffer data, int offset, int end)
+	{
+		boolean inSegment = false;
+		int eciValue = 0;
+		int segStart = offset;
+		int escapedPairs = 0;
+		int ii = offset;
+
+		if (!ECIEscaping.isDesignator(data, offset, end))
+		{
+			inSegment = true;
+		}
+
+		while (ii < end)
+		{
+			ii = ECIEscaping.indexOfBackslash(data, ii, end);
+
+			if (ii >= end)
+			{
+				break;
+			}
+
+			if ((ii + 1 < end) && (ECIEscaping.BACKSLASH == data.get(ii + 1)))
+			{
+				// escaped backslash, un-escaped with the segment data
+				++escapedPairs;
+				ii += 2;
+				continue;
+			}
+
+			if (ECIEscaping.isDesignator(data, ii, end))
+			{
+				if (inSegment)
+				{
+					onSegment(eciValue, data, segStart, ii, escapedPairs);
+				}
+
+				inSegment = true;
+				eciValue = ECIEscaping.parseDigits(data, ii + 1);
+				escapedPairs = 0;
+
+				ii += ECIEscaping.DESIGNATOR_LENGTH;
+				segStart = ii;
+				continue;
+			}
+
+			++ii;
+		}
+
+		if (inSegment)
+		{
+			onSegment(eciValue, data, segStart, end, escapedPairs);
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package benjaminshi.aim.eci;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+/** The per-thread cache of charset decoders and encoders of the ECIs,
+ * with the buffers wrapping the last used arrays, so steady-state decoding allocates nothing.
+ * The decoders and encoders replace malformed and unmappable input, like {@link String}.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+final class ECICoders {
+
+	private static final ThreadLocal<ECICoders> CODERS = new ThreadLocal<ECICoders>() {
+		@Override
+		protected ECICoders initialValue() {
+			return new ECICoders();
+		}
+	};
+
+	private final CharsetDecoder[] decoders = new CharsetDecoder[ECISegment.ECI_TABLE_SIZE];
+
+	private final CharsetEncoder[] encoders = new CharsetEncoder[ECISegment.ECI_TABLE_SIZE];
+
+	/** the decoders and encoders of the ECIs not less than {@link ECISegment#ECI_TABLE_SIZE} */
+	private final Map<Charset, CharsetDecoder> highDecoders = new HashMap<Charset, CharsetDecoder>();
+
+	private final Map<Charset, CharsetEncoder> highEncoders = new HashMap<Charset, CharsetEncoder>();
+
+	/** the decoders reporting malformed and unmappable input, used to validate the segment data */
+	private final CharsetDecoder[] strictDecoders = new CharsetDecoder[ECISegment.ECI_TABLE_SIZE];
+
+	private final Map<Charset, CharsetDecoder> highStrictDecoders = new HashMap<Charset, CharsetDecoder>();
+
+	/** the encoders reporting malformed and unmappable input, used when the text must be encoded exactly */
+	private final CharsetEncoder[] strictEncoders = new CharsetEncoder[ECISegment.ECI_TABLE_SIZE];
+
+	private final Map<Charset, CharsetEncoder> highStrictEncoders = new HashMap<Charset, CharsetEncoder>();
+
+	/** the output of the strict decoders, only checked and never read */
+	private final CharBuffer discarded = CharBuffer.allocate(256);
+
+	private ByteBuffer byteWrapper = null;
+
+	private CharBuffer charWrapper = null;
+
+	private ECICoders() {
+	}
+
+	/** get the coders of the current thread
+	 * @return the coders of the current thread
+	 */
+	static ECICoders get()
+	{
+		return CODERS.get();
+	}
+
+	/** get the reset decoder of the ECI
+	 * @param eci the value of the ECI
+	 * @return the decoder, null if the ECI is not assigned or its charset is not supported by the runtime
+	 */
+	CharsetDecoder decoder(int eci)
+	{
+		return decoder(eci, ECISegment.charsetOf(eci));
+	}
+
+	/** get the reset decoder of the charset used to convert the text of the ECI, 
+	 * ISO-8859-1 if the ECI is not assigned like {@link ECISegment#setSegmentText(String)}
+	 * @param eci the value of the ECI
+	 * @return the decoder, null if the charset of the ECI is not supported by the runtime
+	 */
+	CharsetDecoder textDecoder(int eci)
+	{
+		return decoder(eci, ECISegment.textCharsetOf(eci));
+	}
+
+	private CharsetDecoder decoder(int eci, Charset charset)
+	{
+		if (null == charset)
+		{
+			return null;
+		}
+
+		CharsetDecoder decoder = ((eci >= 0) && (eci < ECISegment.ECI_TABLE_SIZE)) ? decoders[eci] : highDecoders.get(charset);
+
+		if ((null == decoder) || (decoder.charset() != charset))
+		{
+			decoder = charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			if ((eci >= 0) && (eci < ECISegment.ECI_TABLE_SIZE))
+			{
+				decoders[eci] = decoder;
+			}
+			else
+			{
+				highDecoders.put(charset, decoder);
+			}
+		}
+
+		return decoder.reset();
+	}
+
+	/** get the reset decoder of the ECI which reports malformed and unmappable input instead of replacing it
+	 * @param eci the value of the ECI
+	 * @return the decoder, null if the ECI is not assigned or its charset is not supported by the runtime
+	 */
+	CharsetDecoder strictDecoder(int eci)
+	{
+		Charset charset = ECISegment.charsetOf(eci);
+
+		if (null == charset)
+		{
+			return null;
+		}
+
+		CharsetDecoder decoder = (eci < ECISegment.ECI_TABLE_SIZE) ? strictDecoders[eci] : highStrictDecoders.get(charset);
+
+		if ((null == decoder) || (decoder.charset() != charset))
+		{
+			decoder = charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT);
+			if (eci < ECISegment.ECI_TABLE_SIZE)
+			{
+				strictDecoders[eci] = decoder;
+			}
+			else
+			{
+				highStrictDecoders.put(charset, decoder);
+			}
+		}
+
+		return decoder.reset();
+	}
+
+	/** get the char buffer receiving the output of a strict decoder, which is never read
+	 * @return the cleared char buffer
+	 */
+	CharBuffer discarded()
+	{
+		discarded.clear();
+
+		return discarded;
+	}
+
+	/** get the reset encoder of the charset used to convert the text of the ECI
+	 * @param eci the value of the ECI
+	 * @return the encoder, null if the charset of the ECI is not supported by the runtime or can not encode
+	 */
+	CharsetEncoder encoder(int eci)
+	{
+		Charset charset = ECISegment.textCharsetOf(eci);
+
+		if ((null == charset) || (!charset.canEncode()))
+		{
+			return null;
+		}
+
+		CharsetEncoder encoder = ((eci >= 0) && (eci < ECISegment.ECI_TABLE_SIZE)) ? encoders[eci] : highEncoders.get(charset);
+
+		if ((null == encoder) || (encoder.charset() != charset))
+		{
+			encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			if ((eci >= 0) && (eci < ECISegment.ECI_TABLE_SIZE))
+			{
+				encoders[eci] = encoder;
+			}
+			else
+			{
+				highEncoders.put(charset, encoder);
+			}
+		}
+
+		return encoder.reset();
+	}
+
+	/** get the reset encoder of the ECI which reports malformed and unmappable input instead of replacing it
+	 * @param eci the value of the ECI
+	 * @return the encoder, null if the ECI is not assigned, or its charset is not supported by the runtime or can not encode
+	 */
+	CharsetEncoder strictEncoder(int eci)
+	{
+		Charset charset = ECISegment.charsetOf(eci);
+
+		if ((null == charset) || (!charset.canEncode()))
+		{
+			return null;
+		}
+
+		CharsetEncoder encoder = (eci < ECISegment.ECI_TABLE_SIZE) ? strictEncoders[eci] : highStrictEncoders.get(charset);
+
+		if ((null == encoder) || (encoder.charset() != charset))
+		{
+			encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT);
+			if (eci < ECISegment.ECI_TABLE_SIZE)
+			{
+				strictEncoders[eci] = encoder;
+			}
+			else
+			{
+				highStrictEncoders.put(charset, encoder);
+			}
+		}
+
+		return encoder.reset();
+	}
+
+	/** get a byte buffer wrapping the whole array, reused while the same array is wrapped
+	 * @param data the byte array
+	 * @return the byte buffer wrapping data, with position 0 and limit data.length
+	 */
+	ByteBuffer wrap(byte[] data)
+	{
+		if ((null == byteWrapper) || (byteWrapper.array() != data))
+		{
+			byteWrapper = ByteBuffer.wrap(data);
+		}
+		byteWrapper.clear();
+
+		return byteWrapper;
+	}
+
+	/** get a char buffer wrapping the range of the array, reused while the same array is wrapped
+	 * @param data the char array
+	 * @param offset the start of the range
+	 * @param length the length of the range
+	 * @return the char buffer wrapping the range of data
+	 */
+	CharBuffer wrap(char[] data, int offset, int length)
+	{
+		if ((null == charWrapper) || (charWrapper.array() != data))
+		{
+			charWrapper = CharBuffer.wrap(data);
+		}
+		charWrapper.limit(offset + length).position(offset);
+
+		return charWrapper;
+	}
+}
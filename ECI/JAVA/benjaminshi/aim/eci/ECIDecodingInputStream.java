@@ -0,0 +1,202 @@
+package benjaminshi.aim.eci;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** The input stream reading the un-escaped segment data from ECI escaped bytes under ECI protocol.
+ * The ECI designators are stripped and the escaped backslashes are un-escaped on the fly, with bounded buffers.
+ * A read never returns the data of two segments, so after a read {@link #getECIValue()} is the ECI of the bytes just read.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public class ECIDecodingInputStream extends FilterInputStream {
+
+	private final ECIScanner scanner = new ECIScanner() {
+
+		@Override
+		boolean onECI(int eciValue) {
+			if (outPos < outEnd)
+			{
+				// switch after the data of the current segment is read
+				nextECIValue = eciValue;
+				return false;
+			}
+			currentECIValue = eciValue;
+			return true;
+		}
+
+		@Override
+		boolean onData(byte[] data, int offset, int length) {
+			System.arraycopy(data, offset, out, outEnd, length);
+			outEnd += length;
+			return true;
+		}
+	};
+
+	/** the ECI escaped bytes read from the underlying stream */
+	private final byte[] raw;
+
+	private int rawPos = 0;
+
+	private int rawEnd = 0;
+
+	/** the un-escaped data not read yet, it is only filled when empty so it never overflows */
+	private final byte[] out;
+
+	private int outPos = 0;
+
+	private int outEnd = 0;
+
+	private int currentECIValue = -1;
+
+	private int nextECIValue = -1;
+
+	private boolean eof = false;
+
+	/** Create an input stream reading the un-escaped segment data from ECI escaped bytes
+	 * @param in the underlying input stream of ECI escaped bytes
+	 */
+	public ECIDecodingInputStream(InputStream in)
+	{
+		this(in, 8192);
+	}
+
+	/** Create an input stream reading the un-escaped segment data from ECI escaped bytes
+	 * @param in the underlying input stream of ECI escaped bytes
+	 * @param size the size of the buffer for reading the underlying input stream
+	 */
+	public ECIDecodingInputStream(InputStream in, int size)
+	{
+		super(in);
+		if (size <= 0)
+		{
+			throw new IllegalArgumentException("Buffer size <= 0");
+		}
+		raw = new byte[size];
+		out = new byte[size + ECIEscaping.DESIGNATOR_LENGTH];
+	}
+
+	/** get the ECI value of the segment being read, it changes when the data of the next segment is read
+	 * @return the ECI value of the segment being read, -1 if nothing has been read
+	 */
+	public int getECIValue()
+	{
+		return currentECIValue;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if (!fill())
+		{
+			return -1;
+		}
+
+		return out[outPos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if ((off < 0) || (len < 0) || (len > b.length - off))
+		{
+			throw new IndexOutOfBoundsException();
+		}
+		if (0 == len)
+		{
+			return 0;
+		}
+		if (!fill())
+		{
+			return -1;
+		}
+
+		int size = Math.min(len, outEnd - outPos);
+		System.arraycopy(out, outPos, b, off, size);
+		outPos += size;
+
+		return size;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped = 0;
+
+		while ((skipped < n) && fill())
+		{
+			int size = (int)Math.min(n - skipped, outEnd - outPos);
+			outPos += size;
+			skipped += size;
+		}
+
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return outEnd - outPos;
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit)
+	{
+	}
+
+	@Override
+	public synchronized void reset() throws IOException
+	{
+		throw new IOException("mark/reset not supported");
+	}
+
+	/** Make sure there are un-escaped data to read
+	 * @return false if the end of the stream is reached
+	 * @throws IOException when the underlying input stream fails
+	 */
+	private boolean fill() throws IOException
+	{
+		while (outPos >= outEnd)
+		{
+			outPos = 0;
+			outEnd = 0;
+
+			if (nextECIValue >= 0)
+			{
+				currentECIValue = nextECIValue;
+				nextECIValue = -1;
+			}
+
+			if (rawPos >= rawEnd)
+			{
+				if (eof)
+				{
+					return false;
+				}
+
+				int size = in.read(raw, 0, raw.length);
+
+				if (size < 0)
+				{
+					eof = true;
+					scanner.finish();
+					continue;
+				}
+
+				rawPos = 0;
+				rawEnd = size;
+			}
+
+			rawPos += scanner.scan(raw, rawPos, rawEnd - rawPos);
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,147 @@
+package benjaminshi.aim.eci;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** The output stream writing segment data as ECI escaped bytes under ECI protocol.
+ * {@link #startSegment(int)} writes the ECI designator of a new segment, 
+ * and the backslashes in the written data are escaped on the fly, with a bounded buffer.
+ * The data written before the first {@link #startSegment(int)} belongs to a first segment without ECI designator.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public class ECIEncodingOutputStream extends FilterOutputStream {
+
+	private final byte[] buffer;
+
+	private int count = 0;
+
+	private int currentECIValue = -1;
+
+	/** Create an output stream writing segment data as ECI escaped bytes
+	 * @param out the underlying output stream of ECI escaped bytes
+	 */
+	public ECIEncodingOutputStream(OutputStream out)
+	{
+		this(out, 8192);
+	}
+
+	/** Create an output stream writing segment data as ECI escaped bytes
+	 * @param out the underlying output stream of ECI escaped bytes
+	 * @param size the size of the buffer, at least the length of an ECI designator
+	 */
+	public ECIEncodingOutputStream(OutputStream out, int size)
+	{
+		super(out);
+		if (size < ECIEscaping.DESIGNATOR_LENGTH)
+		{
+			throw new IllegalArgumentException("Buffer size < " + ECIEscaping.DESIGNATOR_LENGTH);
+		}
+		buffer = new byte[size];
+	}
+
+	/** get the ECI value of the segment being written
+	 * @return the ECI value of the segment being written, -1 if no segment has been started
+	 */
+	public int getECIValue()
+	{
+		return currentECIValue;
+	}
+
+	/** Start a new segment by writing its ECI designator
+	 * @param eciValue the ECI value of the new segment, in [0, 999999]
+	 * @throws IOException when the underlying output stream fails
+	 */
+	public void startSegment(int eciValue) throws IOException
+	{
+		if ((eciValue < 0) || (eciValue > 999999))
+		{
+			throw new IllegalArgumentException("ECI value out of [0, 999999]: " + eciValue);
+		}
+
+		ensure(ECIEscaping.DESIGNATOR_LENGTH);
+		count += ECIEscaping.writeDesignator(eciValue, buffer, count);
+		currentECIValue = eciValue;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		ensure(2);
+		buffer[count++] = (byte)b;
+		if (ECIEscaping.BACKSLASH == (byte)b)
+		{
+			buffer[count++] = ECIEscaping.BACKSLASH;
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if ((off < 0) || (len < 0) || (len > b.length - off))
+		{
+			throw new IndexOutOfBoundsException();
+		}
+
+		int end = off + len;
+		int ii = off;
+
+		while (ii < end)
+		{
+			int next = ECIEscaping.indexOfBackslash(b, ii, end);
+
+			writeRun(b, ii, next - ii);
+			if (next < end)
+			{
+				ensure(2);
+				buffer[count++] = ECIEscaping.BACKSLASH;
+				buffer[count++] = ECIEscaping.BACKSLASH;
+				++next;
+			}
+			ii = next;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		flushBuffer();
+		out.flush();
+	}
+
+	/** Write a run of bytes without backslash
+	 */
+	private void writeRun(byte[] b, int off, int len) throws IOException
+	{
+		if (len >= buffer.length)
+		{
+			flushBuffer();
+			out.write(b, off, len);
+			return;
+		}
+
+		ensure(len);
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
+	/** Make sure the buffer has room for the bytes
+	 */
+	private void ensure(int size) throws IOException
+	{
+		if (count + size > buffer.length)
+		{
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException
+	{
+		if (count > 0)
+		{
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+}
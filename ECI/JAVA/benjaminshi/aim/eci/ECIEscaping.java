@@ -0,0 +1,736 @@
+package benjaminshi.aim.eci;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/** The helper class for the backslash escaping and ECI designators of ECI protocol
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+final class ECIEscaping {
+
+	/** the escape character of ECI protocol, the backslash */
+	static final byte BACKSLASH = 0x5C;
+
+	/** the length of an ECI designator, like \000003 */
+	static final int DESIGNATOR_LENGTH = 7;
+
+	/** the ECI designator bytes of the ECIs below {@link ECISegment#ECI_TABLE_SIZE}, precomputed once */
+	private static final byte[][] DESIGNATORS = new byte[ECISegment.ECI_TABLE_SIZE][];
+
+	/** the 6 digits of the ECIs below {@link ECISegment#ECI_TABLE_SIZE}, precomputed once */
+	private static final String[] ECI_STRINGS = new String[ECISegment.ECI_TABLE_SIZE];
+
+	static {
+		for (int eci = 0;eci < ECISegment.ECI_TABLE_SIZE;++eci)
+		{
+			DESIGNATORS[eci] = new byte[DESIGNATOR_LENGTH];
+			writeDigits(eci, DESIGNATORS[eci], 0);
+			ECI_STRINGS[eci] = new String(DESIGNATORS[eci], 1, 6, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	/** the view of a byte array as little-endian longs, to scan 8 bytes at a time (SWAR) */
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private static final long BACKSLASHES = 0x5C5C5C5C5C5C5C5CL;
+
+	/** the byte 0x01 in all 8 bytes, multiplied by a byte to repeat it */
+	private static final long ONES = 0x0101010101010101L;
+
+	private static final long LOW_7_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	private static final long HIGH_NIBBLES = 0xF0F0F0F0F0F0F0F0L;
+
+	private ECIEscaping() {
+	}
+
+	/** Get the mask of the backslashes in 8 bytes
+	 * @param word the 8 bytes
+	 * @return the mask with the high bit set exactly in the bytes equal to backslash
+	 */
+	private static long backslashMask(long word)
+	{
+		return byteMask(word, BACKSLASHES);
+	}
+
+	/** Get the mask of the bytes equal to a byte in 8 bytes
+	 * @param word the 8 bytes
+	 * @param pattern the byte repeated in all 8 bytes
+	 * @return the mask with the high bit set exactly in the bytes equal to the byte of pattern
+	 */
+	private static long byteMask(long word, long pattern)
+	{
+		long x = word ^ pattern;
+
+		return ~(((x & LOW_7_BITS) + LOW_7_BITS) | x | LOW_7_BITS);
+	}
+
+	/** Check if 8 bytes are all ASCII digits
+	 * @param word the 8 bytes
+	 * @return true if all bytes are in [0x30, 0x39]
+	 */
+	private static boolean isDigits(long word)
+	{
+		// every high nibble must be 3, and adding 6 must not carry into it
+		return 0x3333333333333333L == ((word & HIGH_NIBBLES) | (((word + 0x0606060606060606L) & HIGH_NIBBLES) >>> 4));
+	}
+
+	/** get the 6 digits of the ECI, like 000003
+	 * @param eciValue the value of the ECI, in [0, 999999]
+	 * @return the 6 digits of the ECI
+	 */
+	static String eciString(int eciValue)
+	{
+		if (eciValue < ECISegment.ECI_TABLE_SIZE)
+		{
+			return ECI_STRINGS[eciValue];
+		}
+
+		char[] digits = new char[6];
+		for (int ii = 5;ii >= 0;--ii)
+		{
+			digits[ii] = (char)('0' + eciValue % 10);
+			eciValue /= 10;
+		}
+
+		return new String(digits);
+	}
+
+	/** get a new byte array of the ECI designator, like \000003
+	 * @param eciValue the value of the ECI, in [0, 999999]
+	 * @return the ECI designator bytes
+	 */
+	static byte[] designator(int eciValue)
+	{
+		if (eciValue < ECISegment.ECI_TABLE_SIZE)
+		{
+			return DESIGNATORS[eciValue].clone();
+		}
+
+		byte[] seq = new byte[DESIGNATOR_LENGTH];
+		writeDigits(eciValue, seq, 0);
+
+		return seq;
+	}
+
+	/** Check if an ECI designator (a backslash followed by 6 digits) starts at the position
+	 * @param text the ECI escaped text
+	 * @param pos the position to check
+	 * @return true if an ECI designator starts at the position
+	 */
+	static boolean isDesignator(CharSequence text, int pos)
+	{
+		if ((pos + 6 >= text.length()) || ('\\' != text.charAt(pos)))
+		{
+			return false;
+		}
+
+		for (int ii = pos + 1;ii < pos + DESIGNATOR_LENGTH;++ii)
+		{
+			char ch = text.charAt(ii);
+			if ((ch < '0') || (ch > '9'))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/** Get the value of the 6 ECI digits starting at the position
+	 * @param text the ECI escaped text
+	 * @param pos the position of the first digit
+	 * @return the value of the ECI, in [0, 999999]
+	 */
+	static int parseDigits(CharSequence text, int pos)
+	{
+		int val = 0;
+
+		for (int ii = pos;ii < pos + 6;++ii)
+		{
+			val = val * 10 + (text.charAt(ii) - '0');
+		}
+
+		return val;
+	}
+
+	/** Check if an ECI designator (a backslash followed by 6 digits) starts at the position
+	 * @param data the ECI escaped byte array
+	 * @param pos the position to check
+	 * @param end the end (exclusive) of the valid bytes in data
+	 * @return true if an ECI designator starts at the position
+	 */
+	static boolean isDesignator(byte[] data, int pos, int end)
+	{
+		if ((pos + 6 >= end) || (BACKSLASH != data[pos]))
+		{
+			return false;
+		}
+
+		if (pos + 8 <= data.length)
+		{
+			// replace the backslash and the byte after the digits by '0', then check all 8 bytes at once
+			long word = (long)LONGS.get(data, pos);
+			return isDigits((word & 0x00FFFFFFFFFFFF00L) | 0x3000000000000030L);
+		}
+
+		for (int ii = pos + 1;ii < pos + DESIGNATOR_LENGTH;++ii)
+		{
+			if ((data[ii] < 0x30) || (data[ii] > 0x39))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/** Get the value of the 6 ECI digits starting at the position
+	 * @param data the ECI escaped byte array
+	 * @param pos the position of the first digit
+	 * @return the value of the ECI, in [0, 999999]
+	 */
+	static int parseDigits(byte[] data, int pos)
+	{
+		int val = 0;
+
+		for (int ii = pos;ii < pos + 6;++ii)
+		{
+			val = val * 10 + (data[ii] - 0x30);
+		}
+
+		return val;
+	}
+
+	/** Find the first backslash in the range
+	 * @param data the byte array
+	 * @param from the start (inclusive) of the range
+	 * @param to the end (exclusive) of the range
+	 * @return the position of the first backslash, or to if there is none
+	 */
+	static int indexOfBackslash(byte[] data, int from, int to)
+	{
+		int ii = from;
+
+		for (;ii + 8 <= to;ii += 8)
+		{
+			long mask = backslashMask((long)LONGS.get(data, ii));
+			if (0 != mask)
+			{
+				return ii + (Long.numberOfTrailingZeros(mask) >>> 3);
+			}
+		}
+
+		for (;ii < to;++ii)
+		{
+			if (BACKSLASH == data[ii])
+			{
+				return ii;
+			}
+		}
+
+		return to;
+	}
+
+	/** Get the length of the escaped bytes in the range after un-escaping
+	 * @param data the escaped byte array
+	 * @param offset the start of the range
+	 * @param length the length of the range
+	 * @return the length after un-escaping
+	 */
+	static int unescapedLength(byte[] data, int offset, int length)
+	{
+		int end = offset + length;
+		int size = length;
+		int ii = indexOfBackslash(data, offset, end);
+
+		while (ii < end)
+		{
+			if ((ii + 1 < end) && (BACKSLASH == data[ii + 1]))
+			{
+				--size;
+				++ii;
+			}
+			ii = indexOfBackslash(data, ii + 1, end);
+		}
+
+		return size;
+	}
+
+	/** Un-escape the escaped bytes in the range, each pair of backslashes becomes one backslash
+	 * @param src the escaped byte array
+	 * @param offset the start of the range
+	 * @param length the length of the range
+	 * @param dst the destination byte array
+	 * @param dstOffset the position in dst to write to
+	 * @return the count of bytes written into dst
+	 */
+	static int unescape(byte[] src, int offset, int length, byte[] dst, int dstOffset)
+	{
+		int end = offset + length;
+		int pos = dstOffset;
+		int ii = offset;
+
+		while (ii < end)
+		{
+			int next = indexOfBackslash(src, ii, end);
+
+			if (next < end)
+			{
+				// keep the backslash, and drop the second one of an escaped pair
+				++next;
+				System.arraycopy(src, ii, dst, pos, next - ii);
+				pos += next - ii;
+				if ((next < end) && (BACKSLASH == src[next]))
+				{
+					++next;
+				}
+			}
+			else
+			{
+				System.arraycopy(src, ii, dst, pos, next - ii);
+				pos += next - ii;
+			}
+			ii = next;
+		}
+
+		return pos - dstOffset;
+	}
+
+	/** Un-escape the escaped bytes in the range into a new byte array
+	 * @param src the escaped byte array
+	 * @param offset the start of the range
+	 * @param length the length of the range
+	 * @return the un-escaped byte array
+	 */
+	static byte[] unescape(byte[] src, int offset, int length)
+	{
+		byte[] dst = new byte[unescapedLength(src, offset, length)];
+
+		unescape(src, offset, length, dst, 0);
+
+		return dst;
+	}
+
+	/** Get the length of the bytes in the range after escaping
+	 * @param data the un-escaped byte array
+	 * @param offset the start of the range
+	 * @param length the length of the range
+	 * @return the length after escaping
+	 */
+	static int escapedLength(byte[] data, int offset, int length)
+	{
+		return length + countBackslashes(data, offset, offset + length);
+	}
+
+	/** Count the backslashes in the range
+	 * @param data the byte array
+	 * @param from the start (inclusive) of the range
+	 * @param to the end (exclusive) of the range
+	 * @return the count of backslashes
+	 */
+	static int countBackslashes(byte[] data, int from, int to)
+	{
+		int count = 0;
+		int ii = from;
+
+		for (;ii + 8 <= to;ii += 8)
+		{
+			count += Long.bitCount(backslashMask((long)LONGS.get(data, ii)));
+		}
+
+		for (;ii < to;++ii)
+		{
+			if (BACKSLASH == data[ii])
+			{
+				++count;
+			}
+		}
+
+		return count;
+	}
+
+	/** Escape the bytes in the range, each backslash becomes a pair of backslashes
+	 * @param src the un-escaped byte array
+	 * @param offset the start of the range
+	 * @param length the length of the range
+	 * @param dst the destination byte array
+	 * @param dstOffset the position in dst to write to
+	 * @return the count of bytes written into dst
+	 */
+	static int escape(byte[] src, int offset, int length, byte[] dst, int dstOffset)
+	{
+		int end = offset + length;
+		int pos = dstOffset;
+		int ii = offset;
+
+		while (ii < end)
+		{
+			int next = indexOfBackslash(src, ii, end);
+
+			System.arraycopy(src, ii, dst, pos, next - ii);
+			pos += next - ii;
+			if (next < end)
+			{
+				dst[pos++] = BACKSLASH;
+				dst[pos++] = BACKSLASH;
+				++next;
+			}
+			ii = next;
+		}
+
+		return pos - dstOffset;
+	}
+
+	/** Get the length of the escaped bytes in the range after escaping them again in the canonical form, 
+	 * the same as the length of {@link #escape(byte[], int, int, byte[], int)} on the un-escaped bytes
+	 * @param data the escaped byte array
+	 * @param offset the start of the range
+	 * @param length the length of the range
+	 * @return the length in the canonical escaping
+	 */
+	static int canonicalLength(byte[] data, int offset, int length)
+	{
+		int end = offset + length;
+		int size = length;
+		int ii = indexOfBackslash(data, offset, end);
+
+		while (ii < end)
+		{
+			if ((ii + 1 < end) && (BACKSLASH == data[ii + 1]))
+			{
+				++ii;
+			}
+			else
+			{
+				// a lone backslash is data, and escaped as a pair
+				++size;
+			}
+			ii = indexOfBackslash(data, ii + 1, end);
+		}
+
+		return size;
+	}
+
+	/** Escape the escaped bytes in the range again in the canonical form without un-escaping them first, 
+	 * each escaped pair is kept and each lone backslash becomes a pair of backslashes
+	 * @param src the escaped byte array
+	 * @param offset the start of the range
+	 * @param length the length of the range
+	 * @param dst the destination byte array
+	 * @param dstOffset the position in dst to write to
+	 * @return the count of bytes written into dst
+	 */
+	static int canonicalize(byte[] src, int offset, int length, byte[] dst, int dstOffset)
+	{
+		int end = offset + length;
+		int pos = dstOffset;
+		int ii = offset;
+
+		while (ii < end)
+		{
+			int next = indexOfBackslash(src, ii, end);
+
+			System.arraycopy(src, ii, dst, pos, next - ii);
+			pos += next - ii;
+			if (next < end)
+			{
+				dst[pos++] = BACKSLASH;
+				dst[pos++] = BACKSLASH;
+				++next;
+				if ((next < end) && (BACKSLASH == src[next]))
+				{
+					++next;
+				}
+			}
+			ii = next;
+		}
+
+		return pos - dstOffset;
+	}
+
+	/** Check if an ECI designator (a backslash followed by 6 digits) starts at the position
+	 * @param data the ECI escaped byte buffer
+	 * @param pos the absolute position to check
+	 * @param end the end (exclusive) of the valid bytes in data
+	 * @return true if an ECI designator starts at the position
+	 */
+	static boolean isDesignator(ByteBuffer data, int pos, int end)
+	{
+		if ((pos + 6 >= end) || (BACKSLASH != data.get(pos)))
+		{
+			return false;
+		}
+
+		for (int ii = pos + 1;ii < pos + DESIGNATOR_LENGTH;++ii)
+		{
+			byte iiByte = data.get(ii);
+			if ((iiByte < 0x30) || (iiByte > 0x39))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/** Get the value of the 6 ECI digits starting at the position
+	 * @param data the ECI escaped byte buffer
+	 * @param pos the absolute position of the first digit
+	 * @return the value of the ECI, in [0, 999999]
+	 */
+	static int parseDigits(ByteBuffer data, int pos)
+	{
+		int val = 0;
+
+		for (int ii = pos;ii < pos + 6;++ii)
+		{
+			val = val * 10 + (data.get(ii) - 0x30);
+		}
+
+		return val;
+	}
+
+	/** Find the first backslash in the range
+	 * @param data the byte buffer
+	 * @param from the absolute start (inclusive) of the range
+	 * @param to the absolute end (exclusive) of the range
+	 * @return the position of the first backslash, or to if there is none
+	 */
+	static int indexOfBackslash(ByteBuffer data, int from, int to)
+	{
+		return indexOf(data, BACKSLASH, from, to);
+	}
+
+	/** Find the first byte equal to the value in the range, 8 bytes at a time like {@link #indexOfBackslash(ByteBuffer, int, int)}
+	 * @param data the byte buffer
+	 * @param value the byte to find
+	 * @param from the absolute start (inclusive) of the range
+	 * @param to the absolute end (exclusive) of the range
+	 * @return the position of the first byte equal to the value, or to if there is none
+	 */
+	static int indexOf(ByteBuffer data, byte value, int from, int to)
+	{
+		boolean bigEndian = (ByteOrder.BIG_ENDIAN == data.order());
+		long pattern = (value & 0xFFL) * ONES;
+		int ii = from;
+
+		for (;ii + 8 <= to;ii += 8)
+		{
+			long mask = byteMask(data.getLong(ii), pattern);
+			if (0 != mask)
+			{
+				return ii + ((bigEndian ? Long.numberOfLeadingZeros(mask) : Long.numberOfTrailingZeros(mask)) >>> 3);
+			}
+		}
+
+		for (;ii < to;++ii)
+		{
+			if (value == data.get(ii))
+			{
+				return ii;
+			}
+		}
+
+		return to;
+	}
+
+	/** Un-escape the escaped bytes in the range into a new byte array. 
+	 * The position of src is moved, its limit must not be less than the end of the range.
+	 * @param src the escaped byte buffer
+	 * @param offset the absolute start of the range
+	 * @param length the length of the range
+	 * @return the un-escaped byte array
+	 */
+	static byte[] unescape(ByteBuffer src, int offset, int length)
+	{
+		int end = offset + length;
+		int size = length;
+		int ii = indexOfBackslash(src, offset, end);
+
+		while (ii < end)
+		{
+			if ((ii + 1 < end) && (BACKSLASH == src.get(ii + 1)))
+			{
+				--size;
+				++ii;
+			}
+			ii = indexOfBackslash(src, ii + 1, end);
+		}
+
+		byte[] dst = new byte[size];
+
+		unescape(src, offset, length, dst, 0);
+
+		return dst;
+	}
+
+	/** Un-escape the escaped bytes in the range into a byte array. 
+	 * The position of src is moved, its limit must not be less than the end of the range.
+	 * @param src the escaped byte buffer
+	 * @param offset the absolute start of the range
+	 * @param length the length of the range
+	 * @param dst the destination byte array, the room of the un-escaped length from dstOffset must be available
+	 * @param dstOffset the position in dst to write to
+	 * @return the count of bytes written
+	 */
+	static int unescape(ByteBuffer src, int offset, int length, byte[] dst, int dstOffset)
+	{
+		int end = offset + length;
+		int pos = dstOffset;
+		int ii = offset;
+
+		while (ii < end)
+		{
+			int next = indexOfBackslash(src, ii, end);
+
+			src.position(ii);
+			if (next < end)
+			{
+				// keep the backslash, and drop the second one of an escaped pair
+				++next;
+				src.get(dst, pos, next - ii);
+				pos += next - ii;
+				if ((next < end) && (BACKSLASH == src.get(next)))
+				{
+					++next;
+				}
+			}
+			else
+			{
+				src.get(dst, pos, next - ii);
+				pos += next - ii;
+			}
+			ii = next;
+		}
+
+		return pos - dstOffset;
+	}
+
+	/** Escape the bytes in the range into a byte buffer, each backslash becomes a pair of backslashes
+	 * @param src the un-escaped byte array
+	 * @param offset the start of the range
+	 * @param length the length of the range
+	 * @param dst the destination byte buffer, its remaining must not be less than the escaped length
+	 */
+	static void escape(byte[] src, int offset, int length, ByteBuffer dst)
+	{
+		if (dst.hasArray())
+		{
+			int pos = dst.position();
+			pos += escape(src, offset, length, dst.array(), dst.arrayOffset() + pos);
+			dst.position(pos);
+			return;
+		}
+
+		int end = offset + length;
+		int ii = offset;
+
+		while (ii < end)
+		{
+			int next = indexOfBackslash(src, ii, end);
+
+			dst.put(src, ii, next - ii);
+			if (next < end)
+			{
+				dst.put(BACKSLASH);
+				dst.put(BACKSLASH);
+				++next;
+			}
+			ii = next;
+		}
+	}
+
+	/** Write the ECI designator, a backslash followed by 6 digits, into a byte array
+	 * @param eciValue the value of the ECI, in [0, 999999]
+	 * @param dst the destination byte array
+	 * @param offset the position in dst to write to
+	 * @return the count of bytes written, always {@link #DESIGNATOR_LENGTH}
+	 */
+	static int writeDesignator(int eciValue, byte[] dst, int offset)
+	{
+		if (eciValue < ECISegment.ECI_TABLE_SIZE)
+		{
+			System.arraycopy(DESIGNATORS[eciValue], 0, dst, offset, DESIGNATOR_LENGTH);
+		}
+		else
+		{
+			writeDigits(eciValue, dst, offset);
+		}
+
+		return DESIGNATOR_LENGTH;
+	}
+
+	/** Write the backslash and the 6 digits of the ECI designator into a byte array
+	 * @param eciValue the value of the ECI, in [0, 999999]
+	 * @param dst the destination byte array
+	 * @param offset the position in dst to write to
+	 */
+	private static void writeDigits(int eciValue, byte[] dst, int offset)
+	{
+		dst[offset] = BACKSLASH;
+		for (int ii = offset + 6;ii > offset;--ii)
+		{
+			dst[ii] = (byte)(0x30 + eciValue % 10);
+			eciValue /= 10;
+		}
+	}
+
+	/** Write the ECI designator, a backslash followed by 6 digits, into a char array
+	 * @param eciValue the value of the ECI, in [0, 999999]
+	 * @param dst the destination char array
+	 * @param offset the position in dst to write to
+	 * @return the count of chars written, always {@link #DESIGNATOR_LENGTH}
+	 */
+	static int writeDesignator(int eciValue, char[] dst, int offset)
+	{
+		dst[offset] = '\\';
+		for (int ii = offset + 6;ii > offset;--ii)
+		{
+			dst[ii] = (char)('0' + eciValue % 10);
+			eciValue /= 10;
+		}
+
+		return DESIGNATOR_LENGTH;
+	}
+
+	/** Put the ECI designator, a backslash followed by 6 digits, into a byte buffer
+	 * @param eciValue the value of the ECI, in [0, 999999]
+	 * @param dst the destination byte buffer
+	 */
+	static void putDesignator(int eciValue, ByteBuffer dst)
+	{
+		if (eciValue < ECISegment.ECI_TABLE_SIZE)
+		{
+			dst.put(DESIGNATORS[eciValue]);
+		}
+		else
+		{
+			dst.put(designator(eciValue));
+		}
+	}
+
+	/** Append the ECI designator, a backslash followed by 6 digits, to a StringBuilder
+	 * @param text the StringBuilder to append to
+	 * @param eciValue the value of the ECI, in [0, 999999]
+	 */
+	static void appendDesignator(StringBuilder text, int eciValue)
+	{
+		text.append('\\').append(eciString(eciValue));
+	}
+
+	/** Append the ECI designator, a backslash followed by 6 digits, to an Appendable
+	 * @param text the Appendable to append to
+	 * @param eciValue the value of the ECI, in [0, 999999]
+	 * @throws IOException when the Appendable fails
+	 */
+	static void appendDesignator(Appendable text, int eciValue) throws IOException
+	{
+		text.append('\\').append(eciString(eciValue));
+	}
+}
@@ -0,0 +1,343 @@
+package benjaminshi.aim.eci;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** The counters of the parsing and encoding done by {@link AIMECI}, built from {@link LongAdder}s 
+ * so the updating threads do not contend, and exposed as a JMX MXBean by {@link #enable()}.
+ * Metrics are disabled by default, when the only cost of an {@link AIMECI} entry point is to read the null listener.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public class ECIMetrics implements ECIMetricsListener, ECIMetricsMXBean {
+
+	/** the name of the MXBean registered by {@link #enable()} */
+	public static final String OBJECT_NAME = "benjaminshi.aim.eci:type=ECIMetrics";
+
+	/** the upper bounds of the buckets of segments per payload, the last bucket has no bound */
+	private static final int[] SEGMENT_BUCKETS = { 0, 1, 2, 3, 4, 8 };
+
+	/** the listener called by {@link AIMECI}, null if metrics are disabled */
+	static volatile ECIMetricsListener Listener = null;
+
+	private final LongAdder payloadsParsed = new LongAdder();
+
+	private final LongAdder fastPathHits = new LongAdder();
+
+	private final LongAdder bytesIn = new LongAdder();
+
+	private final LongAdder segmentsParsed = new LongAdder();
+
+	private final LongAdder[] segmentsPerPayload = new LongAdder[SEGMENT_BUCKETS.length + 1];
+
+	/** the count of segments by ECI value, the ECIs not less than {@link ECISegment#ECI_TABLE_SIZE} are in the map */
+	private final LongAdder[] eciCounts = new LongAdder[ECISegment.ECI_TABLE_SIZE];
+
+	private final Map<Integer, LongAdder> highECICounts = new ConcurrentHashMap<Integer, LongAdder>();
+
+	private final LongAdder payloadsEncoded = new LongAdder();
+
+	private final LongAdder bytesOut = new LongAdder();
+
+	private final LongAdder decodeFailures = new LongAdder();
+
+	private final LongAdder encodeFailures = new LongAdder();
+
+	public ECIMetrics() {
+		for (int ii = 0;ii < segmentsPerPayload.length;++ii)
+		{
+			segmentsPerPayload[ii] = new LongAdder();
+		}
+		for (int ii = 0;ii < eciCounts.length;++ii)
+		{
+			eciCounts[ii] = new LongAdder();
+		}
+	}
+
+	/** Install the listener called by {@link AIMECI}, null to disable metrics
+	 * @param listener the listener, or null
+	 */
+	public static void setListener(ECIMetricsListener listener)
+	{
+		Listener = listener;
+	}
+
+	/** get the listener called by {@link AIMECI}
+	 * @return the listener, null if metrics are disabled
+	 */
+	public static ECIMetricsListener getListener()
+	{
+		return Listener;
+	}
+
+	/** Enable metrics with new counters, installed as the listener and registered as the MXBean named {@link #OBJECT_NAME} 
+	 * in the platform MBean server, replacing the MXBean registered before
+	 * @return the counters
+	 * @throws ECIException when the MXBean can not be registered
+	 */
+	public static synchronized ECIMetrics enable() throws ECIException
+	{
+		ECIMetrics metrics = new ECIMetrics();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try
+		{
+			ObjectName name = new ObjectName(OBJECT_NAME);
+
+			try
+			{
+				server.registerMBean(metrics, name);
+			}
+			catch (InstanceAlreadyExistsException ex)
+			{
+				server.unregisterMBean(name);
+				server.registerMBean(metrics, name);
+			}
+		}
+		catch (JMException ex)
+		{
+			throw new ECIException("ECI error: fail to register the metrics MXBean", ex);
+		}
+
+		setListener(metrics);
+
+		return metrics;
+	}
+
+	/** Disable metrics, the listener is removed and the MXBean is unregistered
+	 */
+	public static synchronized void disable()
+	{
+		setListener(null);
+
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+		}
+		catch (InstanceNotFoundException ex)
+		{
+			// not registered
+		}
+		catch (JMException ex)
+		{
+			throw new IllegalStateException("ECI error: fail to unregister the metrics MXBean", ex);
+		}
+	}
+
+	/** report a parsed payload to the listener if metrics are enabled */
+	static void parsed(int escapedLength, List<ECISegment> segments, boolean fastPath)
+	{
+		ECIMetricsListener listener = Listener;
+
+		if (null != listener)
+		{
+			listener.onParse(escapedLength, segments, fastPath);
+		}
+	}
+
+	/** report encoded segments to the listener if metrics are enabled */
+	static void encoded(List<ECISegment> segments, int transmitLength)
+	{
+		ECIMetricsListener listener = Listener;
+
+		if (null != listener)
+		{
+			listener.onEncode(segments, transmitLength);
+		}
+	}
+
+	/** report a decode failure to the listener if metrics are enabled */
+	static void decodeFailed(int eciValue)
+	{
+		ECIMetricsListener listener = Listener;
+
+		if (null != listener)
+		{
+			listener.onDecodeFailure(eciValue);
+		}
+	}
+
+	/** report an encode failure to the listener if metrics are enabled */
+	static void encodeFailed(int eciValue)
+	{
+		ECIMetricsListener listener = Listener;
+
+		if (null != listener)
+		{
+			listener.onEncodeFailure(eciValue);
+		}
+	}
+
+	@Override
+	public void onParse(int escapedLength, List<ECISegment> segments, boolean fastPath) {
+		int count = segments.size();
+
+		payloadsParsed.increment();
+		if (fastPath)
+		{
+			fastPathHits.increment();
+		}
+		bytesIn.add(escapedLength);
+		segmentsParsed.add(count);
+
+		int bucket = 0;
+		while ((bucket < SEGMENT_BUCKETS.length) && (count > SEGMENT_BUCKETS[bucket]))
+		{
+			++bucket;
+		}
+		segmentsPerPayload[bucket].increment();
+
+		for (int ii = 0;ii < count;++ii)
+		{
+			int eci = segments.get(ii).getECIValue();
+
+			if ((eci >= 0) && (eci < ECISegment.ECI_TABLE_SIZE))
+			{
+				eciCounts[eci].increment();
+			}
+			else
+			{
+				LongAdder adder = highECICounts.get(eci);
+
+				if (null == adder)
+				{
+					LongAdder created = new LongAdder();
+
+					adder = highECICounts.putIfAbsent(eci, created);
+					if (null == adder)
+					{
+						adder = created;
+					}
+				}
+				adder.increment();
+			}
+		}
+	}
+
+	@Override
+	public void onEncode(List<ECISegment> segments, int transmitLength) {
+		payloadsEncoded.increment();
+		bytesOut.add(transmitLength);
+	}
+
+	@Override
+	public void onDecodeFailure(int eciValue) {
+		decodeFailures.increment();
+	}
+
+	@Override
+	public void onEncodeFailure(int eciValue) {
+		encodeFailures.increment();
+	}
+
+	@Override
+	public long getPayloadsParsed() {
+		return payloadsParsed.sum();
+	}
+
+	@Override
+	public long getFastPathHits() {
+		return fastPathHits.sum();
+	}
+
+	@Override
+	public double getFastPathHitRate() {
+		long parsed = payloadsParsed.sum();
+
+		return (parsed > 0) ? ((double) fastPathHits.sum() / parsed) : 0;
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getSegmentsParsed() {
+		return segmentsParsed.sum();
+	}
+
+	@Override
+	public long[] getSegmentsPerPayload() {
+		long[] histogram = new long[segmentsPerPayload.length];
+
+		for (int ii = 0;ii < histogram.length;++ii)
+		{
+			histogram[ii] = segmentsPerPayload[ii].sum();
+		}
+
+		return histogram;
+	}
+
+	@Override
+	public Map<Integer, Long> getECIDistribution() {
+		Map<Integer, Long> distribution = new TreeMap<Integer, Long>();
+
+		for (int eci = 0;eci < eciCounts.length;++eci)
+		{
+			long count = eciCounts[eci].sum();
+
+			if (count > 0)
+			{
+				distribution.put(eci, count);
+			}
+		}
+		for (Map.Entry<Integer, LongAdder> entry : highECICounts.entrySet())
+		{
+			distribution.put(entry.getKey(), entry.getValue().sum());
+		}
+
+		return distribution;
+	}
+
+	@Override
+	public long getPayloadsEncoded() {
+		return payloadsEncoded.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public long getDecodeFailures() {
+		return decodeFailures.sum();
+	}
+
+	@Override
+	public long getEncodeFailures() {
+		return encodeFailures.sum();
+	}
+
+	@Override
+	public void reset() {
+		payloadsParsed.reset();
+		fastPathHits.reset();
+		bytesIn.reset();
+		segmentsParsed.reset();
+		for (LongAdder adder : segmentsPerPayload)
+		{
+			adder.reset();
+		}
+		for (LongAdder adder : eciCounts)
+		{
+			adder.reset();
+		}
+		highECICounts.clear();
+		payloadsEncoded.reset();
+		bytesOut.reset();
+		decodeFailures.reset();
+		encodeFailures.reset();
+	}
+}
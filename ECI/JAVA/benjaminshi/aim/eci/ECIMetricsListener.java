@@ -0,0 +1,36 @@
+package benjaminshi.aim.eci;
+
+import java.util.List;
+
+/** The listener of the parsing and encoding done by {@link AIMECI}, installed by {@link ECIMetrics#setListener(ECIMetricsListener)}.
+ * It is called on the parsing and encoding threads, so it must be thread safe and cheap, 
+ * and it must not modify the segments passed to it.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public interface ECIMetricsListener {
+
+	/** Called after a payload is parsed into segments
+	 * @param escapedLength the length of the ECI escaped payload
+	 * @param segments the parsed segments
+	 * @param fastPath true if the payload has no backslash and was parsed without scanning
+	 */
+	void onParse(int escapedLength, List<ECISegment> segments, boolean fastPath);
+
+	/** Called after segments are encoded into ECI escaped transmit data or text
+	 * @param segments the encoded segments
+	 * @param transmitLength the length of the ECI escaped transmit data, or of the text in chars
+	 */
+	void onEncode(List<ECISegment> segments, int transmitLength);
+
+	/** Called when the text of a segment can not be decoded, because the charset of its ECI is not supported by the runtime
+	 * @param eciValue the value of the ECI
+	 */
+	void onDecodeFailure(int eciValue);
+
+	/** Called when the text or the segments can not be encoded, 
+	 * because the charset of the ECI is not supported by the runtime, a segment has no valid ECI or the output fails
+	 * @param eciValue the value of the ECI, -1 if the segment has no valid ECI or the output fails
+	 */
+	void onEncodeFailure(int eciValue);
+}
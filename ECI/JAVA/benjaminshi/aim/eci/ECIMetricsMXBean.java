@@ -0,0 +1,69 @@
+package benjaminshi.aim.eci;
+
+import java.util.Map;
+
+/** The management interface of {@link ECIMetrics}
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public interface ECIMetricsMXBean {
+
+	/** get the count of payloads parsed
+	 * @return the count of payloads parsed
+	 */
+	long getPayloadsParsed();
+
+	/** get the count of payloads parsed without scanning, because they have no backslash
+	 * @return the count of payloads parsed without scanning
+	 */
+	long getFastPathHits();
+
+	/** get the ratio of payloads parsed without scanning
+	 * @return the ratio in [0, 1], 0 if no payload is parsed
+	 */
+	double getFastPathHitRate();
+
+	/** get the count of ECI escaped bytes parsed
+	 * @return the count of ECI escaped bytes parsed
+	 */
+	long getBytesIn();
+
+	/** get the count of segments parsed
+	 * @return the count of segments parsed
+	 */
+	long getSegmentsParsed();
+
+	/** get the histogram of segments per parsed payload
+	 * @return the counts of payloads with 0, 1, 2, 3, 4, 5 to 8, and more than 8 segments
+	 */
+	long[] getSegmentsPerPayload();
+
+	/** get the distribution of the ECIs of the parsed segments
+	 * @return the count of segments by ECI value, only the ECIs seen are included
+	 */
+	Map<Integer, Long> getECIDistribution();
+
+	/** get the count of segment lists encoded
+	 * @return the count of segment lists encoded
+	 */
+	long getPayloadsEncoded();
+
+	/** get the count of ECI escaped transmit bytes encoded
+	 * @return the count of ECI escaped transmit bytes encoded
+	 */
+	long getBytesOut();
+
+	/** get the count of segment texts which can not be decoded
+	 * @return the count of decode failures
+	 */
+	long getDecodeFailures();
+
+	/** get the count of texts or segments which can not be encoded
+	 * @return the count of encode failures
+	 */
+	long getEncodeFailures();
+
+	/** Reset all counters to 0
+	 */
+	void reset();
+}
@@ -0,0 +1,280 @@
+package benjaminshi.aim.eci;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The encoder splitting a text into the {@link ECISegment}s with the minimum ECI escaped transmit data length.
+ * Every segment costs an ECI designator, and every character costs its encoded bytes in the charset of its segment
+ * plus one more byte for each backslash to escape. A character can only be put in a charset
+ * which encodes it and decodes it back unchanged. The minimum is found by dynamic programming over the characters,
+ * which is linear in the length of the text for a fixed set of candidate ECIs.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+final class ECIOptimalEncoder {
+
+	private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+	private final int[] eciValues;
+
+	private final CharsetEncoder[] encoders;
+
+	private final CharsetDecoder[] decoders;
+
+	/** the byte costs of the characters already seen, indexed by candidate */
+	private final Map<Integer, int[]> costs = new HashMap<Integer, int[]>();
+
+	private final CharBuffer charIn = CharBuffer.allocate(2);
+
+	private final ByteBuffer bytesOut = ByteBuffer.allocate(16);
+
+	private final CharBuffer charsBack = CharBuffer.allocate(4);
+
+	/** Create the encoder with the candidate ECIs, the ECIs whose charsets are not supported or can not encode are ignored
+	 * @param candidates the candidate ECI values, null for all assigned ECIs
+	 */
+	ECIOptimalEncoder(int[] candidates)
+	{
+		if (null == candidates)
+		{
+			candidates = ECIRegistry.snapshot().assignedECIs();
+		}
+
+		List<Integer> values = new ArrayList<Integer>();
+		List<Charset> charsets = new ArrayList<Charset>();
+
+		for (int eci : candidates)
+		{
+			Charset charset = ECISegment.charsetOf(eci);
+
+			if ((null != charset) && charset.canEncode() && (!values.contains(eci)))
+			{
+				values.add(eci);
+				charsets.add(charset);
+			}
+		}
+
+		eciValues = new int[values.size()];
+		encoders = new CharsetEncoder[values.size()];
+		decoders = new CharsetDecoder[values.size()];
+		for (int ii = 0;ii < eciValues.length;++ii)
+		{
+			eciValues[ii] = values.get(ii);
+			encoders[ii] = charsets.get(ii).newEncoder();
+			decoders[ii] = charsets.get(ii).newDecoder();
+		}
+	}
+
+	/** Split the text into the {@link ECISegment}s with the minimum ECI escaped transmit data length
+	 * @param text the text to encode
+	 * @return List of {@link ECISegment}, each with its ECI set, empty if the text is empty
+	 * @throws ECIException when a character can not be encoded by any candidate ECI
+	 */
+	List<ECISegment> encode(String text) throws ECIException
+	{
+		List<ECISegment> segments = new ArrayList<ECISegment>();
+
+		int count = text.codePointCount(0, text.length());
+		int k = eciValues.length;
+
+		if (0 == count)
+		{
+			return segments;
+		}
+
+		if (0 == k)
+		{
+			throw new ECIException("ECI error: no ECI can encode the text");
+		}
+
+		// cost[c] is the minimum length of the characters so far with the last one in candidate c
+		int[] cost = new int[k];
+		int[] next = new int[k];
+		int[] switchFrom = new int[count];
+		BitSet switched = new BitSet(count * k);
+
+		Arrays.fill(cost, ECIEscaping.DESIGNATOR_LENGTH);
+
+		int pos = 0;
+		for (int ii = 0;ii < count;++ii)
+		{
+			int cp = text.codePointAt(pos);
+			int[] charCosts = costsOf(cp);
+			int best = argmin(cost);
+			int switchCost = cost[best] + ECIEscaping.DESIGNATOR_LENGTH;
+			boolean encodable = false;
+
+			for (int c = 0;c < k;++c)
+			{
+				if (charCosts[c] >= INFINITY)
+				{
+					next[c] = INFINITY;
+				}
+				else if (cost[c] <= switchCost)
+				{
+					next[c] = cost[c] + charCosts[c];
+					encodable = true;
+				}
+				else
+				{
+					next[c] = switchCost + charCosts[c];
+					switched.set(ii * k + c);
+					encodable = true;
+				}
+			}
+
+			if (!encodable)
+			{
+				throw new ECIException("ECI error: the character at " + pos + " can not be encoded by any ECI");
+			}
+
+			switchFrom[ii] = best;
+
+			int[] swap = cost;
+			cost = next;
+			next = swap;
+			pos += Character.charCount(cp);
+		}
+
+		// trace back the candidate of every character
+		int[] candidateOf = new int[count];
+		int c = argmin(cost);
+
+		for (int ii = count - 1;ii >= 0;--ii)
+		{
+			candidateOf[ii] = c;
+			if (switched.get(ii * k + c))
+			{
+				c = switchFrom[ii];
+			}
+		}
+
+		int start = 0;
+		pos = 0;
+		for (int ii = 0;ii < count;++ii)
+		{
+			pos += Character.charCount(text.codePointAt(pos));
+			if ((ii + 1 == count) || (candidateOf[ii + 1] != candidateOf[ii]))
+			{
+				segments.add(newSegment(candidateOf[ii], text, start, pos));
+				start = pos;
+			}
+		}
+
+		return segments;
+	}
+
+	private ECISegment newSegment(int candidate, String text, int start, int end) throws ECIException
+	{
+		ByteBuffer encoded;
+
+		try
+		{
+			encoded = encoders[candidate].reset().encode(CharBuffer.wrap(text, start, end));
+		}
+		catch (CharacterCodingException ex)
+		{
+			throw new ECIException("ECI error: the text can not be encoded by ECI " + eciValues[candidate], ex);
+		}
+
+		byte[] data = new byte[encoded.remaining()];
+		encoded.get(data);
+
+		ECISegment seg = new ECISegment();
+		seg.setECIValue(eciValues[candidate]);
+		seg.setUnescapedSegmentData(data);
+
+		return seg;
+	}
+
+	/** get the byte costs of the code point in every candidate
+	 * @param cp the code point
+	 * @return the byte costs indexed by candidate, {@link #INFINITY} if the candidate can not encode it
+	 */
+	private int[] costsOf(int cp)
+	{
+		int[] charCosts = costs.get(cp);
+
+		if (null != charCosts)
+		{
+			return charCosts;
+		}
+
+		charCosts = new int[eciValues.length];
+		for (int c = 0;c < eciValues.length;++c)
+		{
+			charCosts[c] = costOf(c, cp);
+		}
+		costs.put(cp, charCosts);
+
+		return charCosts;
+	}
+
+	private int costOf(int candidate, int cp)
+	{
+		charIn.clear();
+		charIn.put(Character.toChars(cp));
+		charIn.flip();
+		bytesOut.clear();
+
+		CharsetEncoder encoder = encoders[candidate].reset();
+		CoderResult result = encoder.encode(charIn, bytesOut, true);
+
+		if ((!result.isUnderflow()) || charIn.hasRemaining() || (!encoder.flush(bytesOut).isUnderflow()))
+		{
+			return INFINITY;
+		}
+		bytesOut.flip();
+
+		int length = bytesOut.remaining();
+		int size = length;
+		for (int ii = 0;ii < length;++ii)
+		{
+			if (ECIEscaping.BACKSLASH == bytesOut.get(ii))
+			{
+				++size;
+			}
+		}
+
+		// the character must be decoded back unchanged
+		charsBack.clear();
+
+		CharsetDecoder decoder = decoders[candidate].reset();
+		result = decoder.decode(bytesOut, charsBack, true);
+
+		if ((!result.isUnderflow()) || (!decoder.flush(charsBack).isUnderflow()))
+		{
+			return INFINITY;
+		}
+		charsBack.flip();
+		charIn.rewind();
+
+		return charsBack.equals(charIn) ? size : INFINITY;
+	}
+
+	private static int argmin(int[] values)
+	{
+		int best = 0;
+
+		for (int ii = 1;ii < values.length;++ii)
+		{
+			if (values[ii] < values[best])
+			{
+				best = ii;
+			}
+		}
+
+		return best;
+	}
+}
@@ -0,0 +1,89 @@
+package benjaminshi.aim.eci;
+
+import java.util.List;
+
+/** The result of {@link AIMECI#validateECI(byte[])}, the segments of the payload with the first problem found in it.
+ * Problems are reported by status instead of exceptions, so validating damaged payloads stays cheap.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public class ECIParseResult {
+
+	/** The status of a validated payload
+	 */
+	public enum Status {
+		/** the payload is well formed */
+		OK,
+		/** a backslash is neither escaped nor the start of an ECI designator */
+		UNESCAPED_BACKSLASH,
+		/** the payload ends inside an ECI designator */
+		TRUNCATED_DESIGNATOR,
+		/** an ECI designator has an ECI without charset */
+		UNASSIGNED_ECI,
+		/** an ECI designator has an ECI whose charset is not supported by the runtime */
+		UNSUPPORTED_CHARSET,
+		/** the data of a segment is malformed or unmappable in the charset of its ECI */
+		MALFORMED_DATA
+	}
+
+	protected Status ParseStatus = Status.OK;
+
+	protected int ErrorOffset = -1;
+
+	protected int ErrorECIValue = -1;
+
+	protected List<ECISegment> Segments = null;
+
+	ECIParseResult(List<ECISegment> segments) {
+		this.Segments = segments;
+	}
+
+	/** get the status of the payload
+	 * @return the status of the first problem, {@link Status#OK} if the payload is well formed
+	 */
+	public Status getStatus() {
+		return ParseStatus;
+	}
+
+	/** check if the payload is well formed
+	 * @return true if the status is {@link Status#OK}
+	 */
+	public boolean isValid() {
+		return (Status.OK == ParseStatus);
+	}
+
+	/** get the byte offset of the first problem in the payload
+	 * @return the offset of the backslash, the ECI designator or the malformed byte, -1 if the payload is well formed
+	 */
+	public int getErrorOffset() {
+		return ErrorOffset;
+	}
+
+	/** get the ECI of the segment with the first problem
+	 * @return the value of the ECI, -1 if the payload is well formed
+	 */
+	public int getErrorECIValue() {
+		return ErrorECIValue;
+	}
+
+	/** get the segments of the payload, parsed leniently like {@link AIMECI#parseECI(byte[], boolean)} in the zero-copy mode, 
+	 * even if the payload has a problem
+	 * @return List of {@link ECISegment}
+	 */
+	public List<ECISegment> getSegments() {
+		return Segments;
+	}
+
+	/** record the first problem of the payload
+	 * @param status the status of the problem
+	 * @param offset the byte offset of the problem
+	 * @param eciValue the ECI of the segment with the problem
+	 * @return this result
+	 */
+	ECIParseResult fail(Status status, int offset, int eciValue) {
+		this.ParseStatus = status;
+		this.ErrorOffset = offset;
+		this.ErrorECIValue = eciValue;
+		return this;
+	}
+}
@@ -0,0 +1,491 @@
+package benjaminshi.aim.eci;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/** The pipeline transcoding the files of a directory tree, every file a payload,
+ * from ECI escaped transmit data to UTF-8 text, or from UTF-8 text back to ECI escaped transmit data.
+ * Reading, transcoding and writing are separate stages connected by bounded queues:
+ * one thread reads the files, a fixed pool of workers transcodes them, and one thread writes the results
+ * under the same relative paths in the output directory. A file which can not be transcoded is skipped,
+ * and kept with its error in {@link #getFailedFiles()}.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public class ECIPipeline {
+
+	/** The direction of the transcoding
+	 */
+	public enum Mode {
+		/** ECI escaped transmit data to UTF-8 text, see {@link ECIUTF8Transcoder} */
+		DECODE,
+		/** UTF-8 text to ECI escaped transmit data, see {@link AIMECI#ToECITransmitData(List)} */
+		ENCODE
+	}
+
+	/** a file read or transcoded, the end of a stage if path is null */
+	private static final class Job {
+
+		final Path path;
+
+		final byte[] data;
+
+		Job(Path path, byte[] data) {
+			this.path = path;
+			this.data = data;
+		}
+	}
+
+	private static final Job END = new Job(null, null);
+
+	private final Mode mode;
+
+	private final int eciValue;
+
+	private final int workers;
+
+	private final BlockingQueue<Job> readQueue;
+
+	private final BlockingQueue<Job> writeQueue;
+
+	private final AtomicLong filesRead = new AtomicLong();
+
+	private final AtomicLong filesWritten = new AtomicLong();
+
+	private final AtomicLong bytesIn = new AtomicLong();
+
+	private final AtomicLong bytesOut = new AtomicLong();
+
+	private final Map<Path, ECIException> failures = new ConcurrentHashMap<Path, ECIException>();
+
+	/** Create the pipeline
+	 * @param mode the direction of the transcoding
+	 * @param eciValue the ECI of the transmit data encoded from text, -1 to split the text into the segments
+	 * with the minimum length, see {@link AIMECI#ToOptimalECITransmitData(String)}; not used to decode
+	 * @param workers the count of transcoding workers, at least 1
+	 * @param queueCapacity the capacity of the queues between the stages, at least 1
+	 * @throws IllegalArgumentException when the text is encoded with an ECI which is not in [0, 999999], 
+	 * not assigned, or whose charset is not supported by the runtime
+	 */
+	public ECIPipeline(Mode mode, int eciValue, int workers, int queueCapacity) {
+		if ((Mode.ENCODE == mode) && (-1 != eciValue) && ((eciValue > 999999) || (null == ECICoders.get().strictEncoder(eciValue))))
+		{
+			throw new IllegalArgumentException("ECI error: can not encode text with ECI " + eciValue);
+		}
+
+		this.mode = mode;
+		this.eciValue = eciValue;
+		this.workers = Math.max(1, workers);
+		this.readQueue = new ArrayBlockingQueue<Job>(Math.max(1, queueCapacity));
+		this.writeQueue = new ArrayBlockingQueue<Job>(Math.max(1, queueCapacity));
+	}
+
+	/** Transcode all regular files under the input directory into the output directory
+	 * @param inputDir the input directory
+	 * @param outputDir the output directory, created if it does not exist
+	 * @return the count of files written
+	 * @throws IOException when the input directory can not be walked, or a file can not be read or written
+	 * @throws InterruptedException when the current thread is interrupted while waiting for the stages
+	 */
+	public long run(final Path inputDir, final Path outputDir) throws IOException, InterruptedException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(workers + 2);
+
+		try
+		{
+			List<Future<?>> stages = new ArrayList<Future<?>>();
+
+			stages.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					read(inputDir);
+					return null;
+				}
+			}));
+			for (int ii = 0;ii < workers;++ii)
+			{
+				stages.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						transcode();
+						return null;
+					}
+				}));
+			}
+			stages.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					write(outputDir);
+					return null;
+				}
+			}));
+
+			// wait from the write stage back, so a failed stage stops the stages blocked before it
+			for (int ii = stages.size() - 1;ii >= 0;--ii)
+			{
+				try
+				{
+					stages.get(ii).get();
+				}
+				catch (ExecutionException ex)
+				{
+					if (ex.getCause() instanceof IOException)
+					{
+						throw (IOException) ex.getCause();
+					}
+					throw new IOException("ECI error: pipeline stage failed", ex.getCause());
+				}
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		return filesWritten.get();
+	}
+
+	/** the read stage, reading every regular file into the read queue */
+	private void read(Path inputDir) throws IOException, InterruptedException
+	{
+		try (Stream<Path> files = Files.walk(inputDir))
+		{
+			Iterator<Path> it = files.iterator();
+
+			while (it.hasNext())
+			{
+				Path file = it.next();
+
+				if (Files.isRegularFile(file))
+				{
+					byte[] data = Files.readAllBytes(file);
+
+					readQueue.put(new Job(inputDir.relativize(file), data));
+					filesRead.incrementAndGet();
+					bytesIn.addAndGet(data.length);
+				}
+			}
+		}
+		finally
+		{
+			for (int ii = 0;ii < workers;++ii)
+			{
+				readQueue.put(END);
+			}
+		}
+	}
+
+	/** the transcode stage, run by every worker until the end of the read stage */
+	private void transcode() throws InterruptedException
+	{
+		ECIUTF8Transcoder transcoder = new ECIUTF8Transcoder();
+
+		try
+		{
+			for (Job job = readQueue.take();END != job;job = readQueue.take())
+			{
+				try
+				{
+					writeQueue.put(new Job(job.path, (Mode.DECODE == mode) ? decode(transcoder, job.data) : encode(job.data)));
+				}
+				catch (ECIException ex)
+				{
+					failures.put(job.path, ex);
+				}
+			}
+		}
+		finally
+		{
+			writeQueue.put(END);
+		}
+	}
+
+	/** decode the ECI escaped transmit data into UTF-8 text, failing if any segment can not be decoded */
+	private static byte[] decode(ECIUTF8Transcoder transcoder, byte[] data) throws ECIException
+	{
+		byte[] text = transcoder.transcode(data);
+
+		if (transcoder.getSkippedSegments() > 0)
+		{
+			throw new ECIException("ECI error: " + transcoder.getSkippedSegments() + " segments with unsupported charsets");
+		}
+
+		return text;
+	}
+
+	/** encode the UTF-8 text into ECI escaped transmit data, failing if the text can not be encoded exactly with the ECI */
+	private byte[] encode(byte[] data) throws ECIException
+	{
+		String text = new String(data, StandardCharsets.UTF_8);
+		byte[] transmitData;
+
+		if (eciValue < 0)
+		{
+			transmitData = AIMECI.ToOptimalECITransmitData(text);
+		}
+		else
+		{
+			List<ECISegment> segments = new ArrayList<ECISegment>();
+			ECISegment seg = new ECISegment();
+			CharsetEncoder encoder = ECICoders.get().strictEncoder(eciValue);
+			ByteBuffer bytes;
+
+			if (null == encoder)
+			{
+				// the assignment was replaced by a registration since the pipeline was created
+				ECIMetrics.encodeFailed(eciValue);
+				throw new ECIException("ECI error: can not encode text with ECI " + eciValue);
+			}
+
+			try
+			{
+				bytes = encoder.encode(CharBuffer.wrap(text));
+			}
+			catch (CharacterCodingException ex)
+			{
+				ECIMetrics.encodeFailed(eciValue);
+				throw new ECIException("ECI error: the text can not be encoded with ECI " + eciValue, ex);
+			}
+
+			seg.setECIValue(eciValue);
+			seg.setSegmentData(bytes.array(), 0, bytes.limit(), false);
+			segments.add(seg);
+			transmitData = AIMECI.ToECITransmitData(segments);
+		}
+
+		return (null != transmitData) ? transmitData : new byte[0];
+	}
+
+	/** the write stage, writing every transcoded file until the end of all workers */
+	private void write(Path outputDir) throws IOException, InterruptedException
+	{
+		int ended = 0;
+
+		while (ended < workers)
+		{
+			Job job = writeQueue.take();
+
+			if (END == job)
+			{
+				++ended;
+				continue;
+			}
+
+			Path file = outputDir.resolve(job.path);
+
+			if (null != file.getParent())
+			{
+				Files.createDirectories(file.getParent());
+			}
+			Files.write(file, job.data);
+			filesWritten.incrementAndGet();
+			bytesOut.addAndGet(job.data.length);
+		}
+	}
+
+	/** get the count of files read
+	 * @return the count of files read
+	 */
+	public long getFilesRead() {
+		return filesRead.get();
+	}
+
+	/** get the count of files written
+	 * @return the count of files written
+	 */
+	public long getFilesWritten() {
+		return filesWritten.get();
+	}
+
+	/** get the count of bytes read
+	 * @return the count of bytes read
+	 */
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	/** get the count of bytes written
+	 * @return the count of bytes written
+	 */
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	/** get the count of files which can not be transcoded
+	 * @return the count of failed files
+	 */
+	public long getFailures() {
+		return failures.size();
+	}
+
+	/** get the files which can not be transcoded so far
+	 * @return the error of every failed file by its path relative to the input directory, in the order of paths
+	 */
+	public Map<Path, ECIException> getFailedFiles() {
+		return new TreeMap<Path, ECIException>(failures);
+	}
+
+	/** get the count of files read and waiting for the workers
+	 * @return the backlog of the transcode stage
+	 */
+	public int getTranscodeBacklog() {
+		return readQueue.size();
+	}
+
+	/** get the count of files transcoded and waiting to be written
+	 * @return the backlog of the write stage
+	 */
+	public int getWriteBacklog() {
+		return writeQueue.size();
+	}
+
+	/** Transcode a directory tree from the command line:
+	 * ECIPipeline [-decode | -encode | -eci N] [-threads N] [-queue N] input-dir output-dir.
+	 * -decode converts ECI escaped transmit data to UTF-8 text, -encode converts UTF-8 text to ECI escaped transmit data
+	 * with the minimum length, and -eci converts UTF-8 text to ECI escaped transmit data of the ECI.
+	 * The throughput and the backlog of the stages are reported to the standard error every second.
+	 * @param args the command line arguments
+	 * @throws Exception when the files can not be transcoded
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		Mode mode = Mode.DECODE;
+		int eci = -1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int queue = 1024;
+		int ii = 0;
+
+		try
+		{
+			for (;(ii < args.length) && args[ii].startsWith("-");++ii)
+			{
+				if ("-decode".equals(args[ii]))
+				{
+					mode = Mode.DECODE;
+				}
+				else if ("-encode".equals(args[ii]))
+				{
+					mode = Mode.ENCODE;
+					eci = -1;
+				}
+				else if ("-eci".equals(args[ii]))
+				{
+					mode = Mode.ENCODE;
+					eci = Integer.parseInt(args[++ii]);
+				}
+				else if ("-threads".equals(args[ii]))
+				{
+					threads = Integer.parseInt(args[++ii]);
+				}
+				else if ("-queue".equals(args[ii]))
+				{
+					queue = Integer.parseInt(args[++ii]);
+				}
+				else
+				{
+					ii = args.length;
+				}
+			}
+		}
+		catch (RuntimeException ex)
+		{
+			ii = args.length;
+		}
+
+		if (args.length - ii != 2)
+		{
+			System.err.println("usage: ECIPipeline [-decode | -encode | -eci N] [-threads N] [-queue N] input-dir output-dir");
+			System.exit(2);
+		}
+
+		ECIPipeline created = null;
+
+		try
+		{
+			created = new ECIPipeline(mode, eci, threads, queue);
+		}
+		catch (IllegalArgumentException ex)
+		{
+			System.err.println(ex.getMessage());
+			System.err.println("usage: ECIPipeline [-decode | -encode | -eci N] [-threads N] [-queue N] input-dir output-dir");
+			System.exit(2);
+		}
+
+		final ECIPipeline pipeline = created;
+		final long start = System.nanoTime();
+
+		Thread reporter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try
+				{
+					while (true)
+					{
+						Thread.sleep(1000);
+						report(pipeline, start);
+					}
+				}
+				catch (InterruptedException ex)
+				{
+					// the pipeline has finished
+				}
+			}
+		}, "ECIPipeline-reporter");
+
+		reporter.setDaemon(true);
+		reporter.start();
+
+		try
+		{
+			pipeline.run(Paths.get(args[ii]), Paths.get(args[ii + 1]));
+		}
+		finally
+		{
+			reporter.interrupt();
+			report(pipeline, start);
+		}
+
+		for (Map.Entry<Path, ECIException> failure : pipeline.getFailedFiles().entrySet())
+		{
+			System.err.println(failure.getKey() + ": " + failure.getValue().getMessage());
+		}
+
+		if (pipeline.getFailures() > 0)
+		{
+			System.exit(1);
+		}
+	}
+
+	private static void report(ECIPipeline pipeline, long start)
+	{
+		double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+
+		System.err.println(String.format("%.1fs read %d files %.1f MB/s, written %d files %.1f MB/s, failed %d, backlog transcode %d write %d",
+				seconds,
+				pipeline.getFilesRead(), pipeline.getBytesIn() / seconds / 1e6,
+				pipeline.getFilesWritten(), pipeline.getBytesOut() / seconds / 1e6,
+				pipeline.getFailures(), pipeline.getTranscodeBacklog(), pipeline.getWriteBacklog()));
+	}
+}
@@ -0,0 +1,478 @@
+package benjaminshi.aim.eci;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** The registry of the ECI assignments, the built-in ECIs of {@link ECISegment} 
+ * plus the ECIs of the {@link ECIRegistryProvider}s loaded by {@link ServiceLoader} or registered at runtime.
+ * The assignments are published as immutable snapshots, so a lookup is a volatile read without locking,
+ * and a registration copies the current snapshot and publishes the new one.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public final class ECIRegistry {
+
+	/** the current snapshot of the assignments */
+	private static volatile Snapshot Current = null;
+
+	/** the marker of a charset name which is not assigned or not supported by the runtime, cached like a resolved charset */
+	private static final Object UNSUPPORTED = new Object();
+
+	static {
+		Builder builder = ECISegment.builtinECIs();
+		Iterator<ECIRegistryProvider> providers = ServiceLoader.load(ECIRegistryProvider.class).iterator();
+
+		while (true)
+		{
+			try
+			{
+				if (!providers.hasNext())
+				{
+					break;
+				}
+
+				// a provider registers into a copy, so a failing provider leaves none of its assignments
+				Builder copy = new Builder(builder);
+
+				providers.next().registerECIs(copy);
+				builder = copy;
+			}
+			catch (ServiceConfigurationError ex)
+			{
+				// a broken provider is skipped, the built-in ECIs are still available
+				Logger.getLogger(ECIRegistry.class.getName()).log(Level.WARNING, "ECI error: skip the ECI registry provider which fails to load", ex);
+			}
+			catch (RuntimeException ex)
+			{
+				// a provider failing to register is skipped like a broken one
+				Logger.getLogger(ECIRegistry.class.getName()).log(Level.WARNING, "ECI error: skip the ECI registry provider which fails to register", ex);
+			}
+		}
+
+		Current = new Snapshot(builder);
+	}
+
+	private ECIRegistry() {
+	}
+
+	/** get the current snapshot of the assignments
+	 * @return the current snapshot
+	 */
+	static Snapshot snapshot()
+	{
+		return Current;
+	}
+
+	/** Register the ECI assignments of a provider, and publish them to all threads
+	 * @param provider the provider of the ECI assignments
+	 */
+	public static synchronized void register(ECIRegistryProvider provider)
+	{
+		Builder builder = new Builder(Current);
+
+		provider.registerECIs(builder);
+
+		Current = new Snapshot(builder);
+	}
+
+	/** Register an ECI assignment, replacing the charset assigned to the ECI before
+	 * @param eci the value of the ECI, in [0, 999999]
+	 * @param charsets the charset name of the ECI, followed by its aliases
+	 */
+	public static void register(final int eci, final String... charsets)
+	{
+		if ((eci < 0) || (eci > 999999) || (charsets.length <= 0))
+		{
+			throw new IllegalArgumentException("ECI error: invalid ECI assignment " + eci);
+		}
+
+		register(new ECIRegistryProvider() {
+			@Override
+			public void registerECIs(Builder builder) {
+				builder.matchECItoCharset(eci, charsets);
+			}
+		});
+	}
+
+	/** get the ECI of the charset, the name is matched exactly first, then ignoring case and punctuation,
+	 * then by the names and aliases the runtime knows for the registered charsets, so "UTF-8", "utf8" and "Utf_8" have the same ECI
+	 * @param charset the charset name or alias, like "UTF-8", "ISO-8859-1"
+	 * @return the value of the ECI, -1 if the charset is not registered
+	 */
+	public static int getECIValue(String charset)
+	{
+		return Current.eciOf(charset);
+	}
+
+	/** get the charset name of the ECI
+	 * @param eci the value of the ECI
+	 * @return the charset name, "" if the ECI is not assigned
+	 */
+	public static String getCharset(int eci)
+	{
+		return Current.charsetNameOf(eci);
+	}
+
+	/** The builder of a registry snapshot, passed to {@link ECIRegistryProvider#registerECIs(Builder)}
+	 */
+	public static final class Builder {
+
+		final SortedMap<Integer, String> ECIToCharset;
+
+		final Map<String, Integer> CharsetToECI;
+
+		final Map<String, String> CharsetDisplayName;
+
+		Builder() {
+			ECIToCharset = new TreeMap<Integer, String>();
+			CharsetToECI = new HashMap<String, Integer>();
+			CharsetDisplayName = new HashMap<String, String>();
+		}
+
+		Builder(Builder builder) {
+			ECIToCharset = new TreeMap<Integer, String>(builder.ECIToCharset);
+			CharsetToECI = new HashMap<String, Integer>(builder.CharsetToECI);
+			CharsetDisplayName = new HashMap<String, String>(builder.CharsetDisplayName);
+		}
+
+		Builder(Snapshot snapshot) {
+			ECIToCharset = new TreeMap<Integer, String>(snapshot.ECIToCharset);
+			CharsetToECI = new HashMap<String, Integer>(snapshot.CharsetToECI);
+			CharsetDisplayName = new HashMap<String, String>(snapshot.CharsetDisplayName);
+		}
+
+		/** match a charset name or alias to the ECI, the charset of the ECI is set only if it has none
+		 * @param eci the value of the ECI
+		 * @param charset the charset name or alias
+		 * @return this builder
+		 */
+		public Builder matchECItoCharset(int eci, String charset)
+		{
+			if (!ECIToCharset.containsKey(eci))
+				ECIToCharset.put(eci, charset);
+			CharsetToECI.put(charset, eci);
+			return this;
+		}
+
+		/** match the charset names to the ECI, the first name replaces the charset of the ECI and the others are aliases
+		 * @param eci the value of the ECI
+		 * @param charsets the charset name of the ECI, followed by its aliases
+		 * @return this builder
+		 */
+		public Builder matchECItoCharset(int eci, String[] charsets)
+		{
+			if ((null != charsets) && (charsets.length > 0))
+				ECIToCharset.put(eci, charsets[0]);
+			for (String charset : charsets)
+			{
+				CharsetToECI.put(charset, eci);
+			}
+			return this;
+		}
+
+		/** set the encoding display name or description of a charset
+		 * @param charset the charset name
+		 * @param name the encoding display name or description
+		 * @return this builder
+		 */
+		public Builder matchCharsetDisplayName(String charset, String name)
+		{
+			CharsetDisplayName.put(charset, name);
+			return this;
+		}
+	}
+
+	/** The immutable snapshot of the assignments, with the tables indexed by ECI value for lookups without locking
+	 */
+	static final class Snapshot {
+
+		final SortedMap<Integer, String> ECIToCharset;
+
+		final Map<String, Integer> CharsetToECI;
+
+		final Map<String, String> CharsetDisplayName;
+
+		/** the charset names indexed by ECI value, "" if not assigned */
+		private final String[] names = new String[ECISegment.ECI_TABLE_SIZE];
+
+		/** the charsets indexed by ECI value, resolved on first use: null if not resolved yet, 
+		 * {@link ECIRegistry#UNSUPPORTED} if not assigned or not supported by the runtime.
+		 * They are resolved lazily, because resolving all of them when a snapshot is built 
+		 * loads the extended charsets of the runtime and slows the start and every registration.
+		 * An entry is written without locking: a racing reader sees either null and resolves the same charset again, 
+		 * or the reference to a {@link Charset}, whose name and aliases are final fields, so it is seen fully constructed */
+		private final Object[] charsets = new Object[ECISegment.ECI_TABLE_SIZE];
+
+		/** the encoding display names indexed by ECI value, "" if unknown */
+		private final String[] displayNames = new String[ECISegment.ECI_TABLE_SIZE];
+
+		/** the sorted ECI values not less than {@link ECISegment#ECI_TABLE_SIZE}, with their charset names and charsets */
+		private final int[] highValues;
+
+		private final String[] highNames;
+
+		/** the charsets of the high ECI values, resolved on first use like {@link #charsets} */
+		private final Object[] highCharsets;
+
+		/** the ECIs of the normalised charset names and aliases, built on the first lookup missing the exact names.
+		 * Written without locking like {@link #charsets}, a race only builds the same table twice, 
+		 * and the fields of {@link ECIAliasTable} are final, so a racing reader sees it fully built */
+		private ECIAliasTable aliases = null;
+
+		/** the ECIs of the normalised names and aliases the runtime knows for the registered charsets, 
+		 * built on the first lookup missing {@link #aliases}, as it resolves every registered charset */
+		private ECIAliasTable runtimeAliases = null;
+
+		Snapshot(Builder builder) {
+			ECIToCharset = Collections.unmodifiableSortedMap(new TreeMap<Integer, String>(builder.ECIToCharset));
+			CharsetToECI = Collections.unmodifiableMap(new HashMap<String, Integer>(builder.CharsetToECI));
+			CharsetDisplayName = Collections.unmodifiableMap(new HashMap<String, String>(builder.CharsetDisplayName));
+
+			List<Integer> highECIs = new ArrayList<Integer>();
+
+			Arrays.fill(names, "");
+			Arrays.fill(displayNames, "");
+
+			for (Map.Entry<Integer, String> entry : ECIToCharset.entrySet())
+			{
+				int eci = entry.getKey();
+				String charset = entry.getValue();
+
+				if ((eci < 0) || (charset.length() <= 0))
+				{
+					continue;
+				}
+
+				if (eci < ECISegment.ECI_TABLE_SIZE)
+				{
+					names[eci] = charset;
+					if (CharsetDisplayName.containsKey(charset))
+					{
+						displayNames[eci] = CharsetDisplayName.get(charset);
+					}
+				}
+				else
+				{
+					highECIs.add(eci);
+				}
+			}
+
+			highValues = new int[highECIs.size()];
+			highNames = new String[highECIs.size()];
+			highCharsets = new Object[highECIs.size()];
+
+			for (int ii = 0;ii < highValues.length;++ii)
+			{
+				highValues[ii] = highECIs.get(ii);
+				highNames[ii] = ECIToCharset.get(highValues[ii]);
+			}
+
+		}
+
+		/** get the ECI of the charset name or alias
+		 * @param charset the charset name or alias
+		 * @return the value of the ECI, -1 if the charset is not registered
+		 */
+		int eciOf(String charset)
+		{
+			if (null == charset)
+			{
+				return -1;
+			}
+
+			Integer eci = CharsetToECI.get(charset);
+
+			if (null != eci)
+			{
+				return eci;
+			}
+
+			ECIAliasTable table = aliases;
+
+			if (null == table)
+			{
+				table = new ECIAliasTable(CharsetToECI);
+				aliases = table;
+			}
+
+			int value = table.lookup(charset);
+
+			if (value >= 0)
+			{
+				return value;
+			}
+
+			table = runtimeAliases;
+			if (null == table)
+			{
+				table = buildRuntimeAliases();
+				runtimeAliases = table;
+			}
+
+			return table.lookup(charset);
+		}
+
+		/** build the table of the runtime names and aliases, those of a charset assigned to several ECIs resolve to the lowest one */
+		private ECIAliasTable buildRuntimeAliases()
+		{
+			Map<String, Integer> runtimeAliases = new HashMap<String, Integer>();
+
+			for (int eci : ECIToCharset.keySet())
+			{
+				Charset resolved = charsetOf(eci);
+
+				if (null == resolved)
+				{
+					continue;
+				}
+
+				if (!runtimeAliases.containsKey(resolved.name()))
+				{
+					runtimeAliases.put(resolved.name(), eci);
+				}
+				for (String alias : resolved.aliases())
+				{
+					if (!runtimeAliases.containsKey(alias))
+					{
+						runtimeAliases.put(alias, eci);
+					}
+				}
+			}
+
+			return new ECIAliasTable(runtimeAliases);
+		}
+
+		/** get the charset name of the ECI
+		 * @param eci the value of the ECI
+		 * @return the charset name, "" if the ECI is not assigned
+		 */
+		String charsetNameOf(int eci)
+		{
+			if ((eci >= 0) && (eci < ECISegment.ECI_TABLE_SIZE))
+			{
+				return names[eci];
+			}
+
+			int index = (eci >= ECISegment.ECI_TABLE_SIZE) ? Arrays.binarySearch(highValues, eci) : -1;
+
+			return (index >= 0) ? highNames[index] : "";
+		}
+
+		/** get the charset of the ECI
+		 * @param eci the value of the ECI
+		 * @return the charset, null if the ECI is not assigned or its charset is not supported by the runtime
+		 */
+		Charset charsetOf(int eci)
+		{
+			if ((eci >= 0) && (eci < ECISegment.ECI_TABLE_SIZE))
+			{
+				Object charset = charsets[eci];
+
+				if (null == charset)
+				{
+					charset = resolve(names[eci]);
+					charsets[eci] = charset;
+				}
+
+				return (UNSUPPORTED != charset) ? (Charset) charset : null;
+			}
+
+			int index = (eci >= ECISegment.ECI_TABLE_SIZE) ? Arrays.binarySearch(highValues, eci) : -1;
+
+			if (index < 0)
+			{
+				return null;
+			}
+
+			Object charset = highCharsets[index];
+
+			if (null == charset)
+			{
+				charset = resolve(highNames[index]);
+				highCharsets[index] = charset;
+			}
+
+			return (UNSUPPORTED != charset) ? (Charset) charset : null;
+		}
+
+		/** resolve the charset name of an ECI for the tables, {@link ECIRegistry#UNSUPPORTED} if not assigned or not supported */
+		private static Object resolve(String name)
+		{
+			Charset charset = (name.length() > 0) ? resolveCharset(name) : null;
+
+			return (null != charset) ? charset : UNSUPPORTED;
+		}
+
+		/** get the encoding display name of the ECI
+		 * @param eci the value of the ECI
+		 * @return the encoding display name, "" if unknown
+		 */
+		String displayNameOf(int eci)
+		{
+			if ((eci >= 0) && (eci < ECISegment.ECI_TABLE_SIZE))
+			{
+				return displayNames[eci];
+			}
+
+			String charset = charsetNameOf(eci);
+
+			if ((charset.length() > 0) && (CharsetDisplayName.containsKey(charset)))
+			{
+				return CharsetDisplayName.get(charset);
+			}
+			return "";
+		}
+
+		/** get the assigned ECI values with a charset name, in ascending order
+		 * @return the assigned ECI values
+		 */
+		int[] assignedECIs()
+		{
+			List<Integer> values = new ArrayList<Integer>();
+
+			for (Map.Entry<Integer, String> entry : ECIToCharset.entrySet())
+			{
+				if ((entry.getKey() >= 0) && (entry.getValue().length() > 0))
+				{
+					values.add(entry.getKey());
+				}
+			}
+
+			int[] result = new int[values.size()];
+			for (int ii = 0;ii < result.length;++ii)
+			{
+				result[ii] = values.get(ii);
+			}
+
+			return result;
+		}
+	}
+
+	/** resolve the charset by its name
+	 * @param charset the charset name
+	 * @return the charset, null if it is not supported by the runtime
+	 */
+	static Charset resolveCharset(String charset)
+	{
+		try
+		{
+			return Charset.forName(charset);
+		}
+		catch (IllegalArgumentException ex)
+		{
+			return null;
+		}
+	}
+}
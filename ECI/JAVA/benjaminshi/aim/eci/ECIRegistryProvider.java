@@ -0,0 +1,15 @@
+package benjaminshi.aim.eci;
+
+/** The provider of ECI assignments, like vendor-specific or newer ECIs, added to {@link ECIRegistry}.
+ * Providers listed in META-INF/services/benjaminshi.aim.eci.ECIRegistryProvider are loaded by {@link java.util.ServiceLoader}
+ * when the registry is first used, and providers can be registered at runtime by {@link ECIRegistry#register(ECIRegistryProvider)}.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public interface ECIRegistryProvider {
+
+	/** Add the ECI assignments of this provider
+	 * @param builder the builder of the next registry snapshot, holding all ECIs registered before
+	 */
+	void registerECIs(ECIRegistry.Builder builder);
+}
@@ -0,0 +1,403 @@
+package benjaminshi.aim.eci;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The processor of scan-log files, the capture files of ECI escaped payloads written by scanners.
+ * A file is mapped by {@link FileChannel#map} in windows, so it is never read into the heap as a whole,
+ * and every record is scanned in place in the mapped window, the records are found and parsed 8 bytes at a time without copying them.
+ * The records are written as UTF-8 text lines, or summarised as per-ECI statistics.
+ * A processor keeps its buffers between files, so it is reusable but not thread safe.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public class ECIScanLog {
+
+	/** The record format of a scan-log file
+	 */
+	public enum Format {
+		/** every record is prefixed with its length in 4 bytes, big-endian */
+		LENGTH_PREFIXED,
+		/** every record ends with a line feed, optionally preceded by a carriage return */
+		NEWLINE_DELIMITED
+	}
+
+	/** the size of the mapped windows, a record longer than it is mapped by itself */
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/** the size of the buffered output */
+	private static final int OUTPUT_SIZE = 1024 * 1024;
+
+	private static final int LENGTH_PREFIX = 4;
+
+	private final Format format;
+
+	private final ECIUTF8Transcoder transcoder = new ECIUTF8Transcoder();
+
+	/** the view of the mapped window to process the records in, its position and limit are set to the record being processed */
+	private ByteBuffer record = null;
+
+	/** the start of the record being processed in {@link #record} */
+	private int recordStart = 0;
+
+	/** the length of the record being processed */
+	private int recordLength = 0;
+
+	/** the UTF-8 bytes of the record being processed */
+	private byte[] text = new byte[4096];
+
+	private FileChannel channel = null;
+
+	private MappedByteBuffer window = null;
+
+	private long windowStart = 0;
+
+	/** Create the processor of the scan-log files in the format
+	 * @param format the record format
+	 */
+	public ECIScanLog(Format format) {
+		this.format = format;
+	}
+
+	/** Write the text of every record of the scan-log file as a line of UTF-8 text,
+	 * the text of a record is the text of all its segments, see {@link ECIUTF8Transcoder},
+	 * so a record without ECI designator is written as its ISO-8859-1 text rather than an empty line
+	 * @param input the scan-log file
+	 * @param output the channel to write the text lines to
+	 * @return the count of records
+	 * @throws IOException when the file can not be read, a record is truncated, or the output can not be written
+	 */
+	public long decode(Path input, WritableByteChannel output) throws IOException
+	{
+		ByteBuffer buffered = ByteBuffer.allocate(OUTPUT_SIZE);
+		long count = 0;
+
+		open(input);
+		try
+		{
+			long pos = 0;
+
+			while ((pos = nextRecord(pos)) >= 0)
+			{
+				int length = transcode();
+
+				if (length + 1 > buffered.remaining())
+				{
+					flush(output, buffered);
+				}
+				if (length + 1 > buffered.remaining())
+				{
+					write(output, ByteBuffer.wrap(text, 0, length + 1));
+				}
+				else
+				{
+					buffered.put(text, 0, length + 1);
+				}
+				++count;
+			}
+			flush(output, buffered);
+		}
+		finally
+		{
+			close();
+		}
+
+		return count;
+	}
+
+	/** Write the statistics of the scan-log file as UTF-8 text: the counts of records, escaped bytes and segments,
+	 * then the count of segments and un-escaped data bytes of every ECI seen, one ECI a line in ascending order
+	 * @param input the scan-log file
+	 * @param output the channel to write the statistics to
+	 * @return the count of records
+	 * @throws IOException when the file can not be read, a record is truncated, or the output can not be written
+	 */
+	public long statistics(Path input, WritableByteChannel output) throws IOException
+	{
+		final Map<Integer, long[]> ecis = new TreeMap<Integer, long[]>();
+		final long[] segmentCount = new long[1];
+		long count = 0;
+		long bytes = 0;
+
+		// the segments are counted in place, the un-escaped length is the escaped length less the escaped backslash pairs
+		ECIBufferScanner scanner = new ECIBufferScanner() {
+			@Override
+			void onSegment(int eciValue, ByteBuffer data, int offset, int end, int escapedPairs) {
+				long[] counts = ecis.get(eciValue);
+
+				if (null == counts)
+				{
+					counts = new long[2];
+					ecis.put(eciValue, counts);
+				}
+				++counts[0];
+				counts[1] += end - offset - escapedPairs;
+				++segmentCount[0];
+			}
+		};
+
+		open(input);
+		try
+		{
+			long pos = 0;
+
+			while ((pos = nextRecord(pos)) >= 0)
+			{
+				scanner.scan(record, recordStart, recordStart + recordLength);
+				++count;
+				bytes += recordLength;
+			}
+		}
+		finally
+		{
+			close();
+		}
+
+		StringBuilder report = new StringBuilder();
+
+		report.append("records\t").append(count).append('\n');
+		report.append("bytes\t").append(bytes).append('\n');
+		report.append("segments\t").append(segmentCount[0]).append('\n');
+		report.append("ECI\tsegments\tbytes\tcharset\n");
+		for (Map.Entry<Integer, long[]> entry : ecis.entrySet())
+		{
+			int eci = entry.getKey();
+
+			report.append((eci >= 0) ? ECIEscaping.eciString(eci) : "").append('\t')
+					.append(entry.getValue()[0]).append('\t')
+					.append(entry.getValue()[1]).append('\t')
+					.append(ECISegment.charsetNameOf(eci)).append('\n');
+		}
+
+		write(output, ByteBuffer.wrap(report.toString().getBytes(StandardCharsets.UTF_8)));
+
+		return count;
+	}
+
+	/** transcode the record into {@link #text} followed by a line feed
+	 * @return the length of the UTF-8 bytes, without the line feed
+	 */
+	private int transcode()
+	{
+		int size = ECIUTF8Transcoder.maxUTF8Length(recordLength) + 1;
+
+		if (size > text.length)
+		{
+			text = new byte[Math.max(text.length * 2, size)];
+		}
+
+		record.limit(recordStart + recordLength);
+		record.position(recordStart);
+
+		int length = transcoder.transcode(record, text, 0);
+
+		text[length] = '\n';
+
+		return length;
+	}
+
+	/** find the record starting at the position of the file, and set it in {@link #record}
+	 * @param pos the position of the record in the file
+	 * @return the position of the next record, -1 if there is no record at pos
+	 * @throws IOException when the file can not be mapped or the record is truncated
+	 */
+	private long nextRecord(long pos) throws IOException
+	{
+		long size = channel.size();
+
+		if (pos >= size)
+		{
+			return -1;
+		}
+
+		if (Format.LENGTH_PREFIXED == format)
+		{
+			if (pos + LENGTH_PREFIX > size)
+			{
+				throw new IOException("ECI error: truncated record length at " + pos);
+			}
+
+			ByteBuffer mapped = map(pos, LENGTH_PREFIX);
+			long length = mapped.order(ByteOrder.BIG_ENDIAN).getInt((int) (pos - windowStart)) & 0xFFFFFFFFL;
+
+			if ((length > Integer.MAX_VALUE - LENGTH_PREFIX) || (pos + LENGTH_PREFIX + length > size))
+			{
+				throw new IOException("ECI error: truncated record of " + length + " bytes at " + pos);
+			}
+
+			setRecord(pos + LENGTH_PREFIX, (int) length);
+
+			return pos + LENGTH_PREFIX + length;
+		}
+
+		// find the line feed in the window, and map a larger window at pos if the line does not end in it
+		int needed = 1;
+
+		while (true)
+		{
+			ByteBuffer mapped = map(pos, needed);
+			int start = (int) (pos - windowStart);
+			int end = mapped.limit();
+
+			int ii = ECIEscaping.indexOf(mapped, (byte) '\n', start, end);
+
+			if (ii < end)
+			{
+				int length = ii - start;
+
+				setRecord(pos, ((length > 0) && ('\r' == mapped.get(ii - 1))) ? (length - 1) : length);
+
+				return pos + length + 1;
+			}
+
+			if (windowStart + end >= size)
+			{
+				// the last line has no line feed
+				setRecord(pos, (int) (size - pos));
+
+				return size;
+			}
+
+			long available = windowStart + end - pos;
+
+			if (available >= Integer.MAX_VALUE / 2)
+			{
+				throw new IOException("ECI error: record too long at " + pos);
+			}
+			needed = (int) Math.min(available * 2, size - pos);
+		}
+	}
+
+	/** set the range of the file as the record being processed, mapping a window covering it */
+	private void setRecord(long pos, int length) throws IOException
+	{
+		map(pos, length);
+		recordStart = (int) (pos - windowStart);
+		recordLength = length;
+	}
+
+	/** get the mapped window covering the range of the file, mapping a new window at pos if the current one does not cover it */
+	private MappedByteBuffer map(long pos, int length) throws IOException
+	{
+		if ((null == window) || (pos < windowStart) || (pos + length > windowStart + window.limit()))
+		{
+			long size = Math.min(Math.max(WINDOW_SIZE, length), channel.size() - pos);
+
+			window = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+			windowStart = pos;
+			record = window.duplicate();
+		}
+
+		return window;
+	}
+
+	private void open(Path input) throws IOException
+	{
+		channel = FileChannel.open(input, StandardOpenOption.READ);
+		window = null;
+		record = null;
+		windowStart = 0;
+	}
+
+	private void close() throws IOException
+	{
+		window = null;
+		record = null;
+		try
+		{
+			channel.close();
+		}
+		finally
+		{
+			channel = null;
+		}
+	}
+
+	private static void write(WritableByteChannel output, ByteBuffer data) throws IOException
+	{
+		while (data.hasRemaining())
+		{
+			output.write(data);
+		}
+	}
+
+	/** write the buffered bytes and clear the buffer */
+	private static void flush(WritableByteChannel output, ByteBuffer buffered) throws IOException
+	{
+		buffered.flip();
+		write(output, buffered);
+		buffered.clear();
+	}
+
+	/** Process a scan-log file from the command line:
+	 * ECIScanLog [-length | -newline] [-stats] input [output], the output is the standard output if omitted
+	 * @param args the command line arguments
+	 * @throws IOException when the files can not be read or written
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		Format format = Format.NEWLINE_DELIMITED;
+		boolean stats = false;
+		int ii = 0;
+
+		for (;(ii < args.length) && args[ii].startsWith("-");++ii)
+		{
+			if ("-length".equals(args[ii]))
+			{
+				format = Format.LENGTH_PREFIXED;
+			}
+			else if ("-newline".equals(args[ii]))
+			{
+				format = Format.NEWLINE_DELIMITED;
+			}
+			else if ("-stats".equals(args[ii]))
+			{
+				stats = true;
+			}
+			else
+			{
+				ii = args.length;
+			}
+		}
+
+		if ((ii >= args.length) || (args.length - ii > 2))
+		{
+			System.err.println("usage: ECIScanLog [-length | -newline] [-stats] input [output]");
+			System.exit(2);
+		}
+
+		Path input = Paths.get(args[ii]);
+		WritableByteChannel output = (ii + 1 < args.length)
+				? FileChannel.open(Paths.get(args[ii + 1]), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)
+				: Channels.newChannel(System.out);
+
+		try
+		{
+			ECIScanLog log = new ECIScanLog(format);
+
+			if (stats)
+			{
+				log.statistics(input, output);
+			}
+			else
+			{
+				log.decode(input, output);
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+	}
+}
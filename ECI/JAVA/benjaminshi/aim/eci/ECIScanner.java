@@ -0,0 +1,165 @@
+package benjaminshi.aim.eci;
+
+/** The state machine used to scan ECI escaped bytes chunk by chunk,
+ * an ECI designator or an escaped backslash pair may be split across chunks.
+ * The ECIs and the un-escaped data runs are reported to {@link #onECI(int)} and {@link #onData(byte[], int, int)}.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+abstract class ECIScanner {
+
+	/** the bytes of a possible ECI designator or escaped backslash pair not completed yet */
+	private final byte[] pending = new byte[ECIEscaping.DESIGNATOR_LENGTH];
+
+	private int pendingLength = 0;
+
+	/** whether the first segment has been reported */
+	private boolean started = false;
+
+	/** Called when a new segment starts, the first segment has the ECI 0 if the data does not start with an ECI designator
+	 * @param eciValue the value of the ECI, in [0, 999999]
+	 * @return true to continue scanning, false to stop
+	 */
+	abstract boolean onECI(int eciValue);
+
+	/** Called for a run of un-escaped data of the current segment, the bytes are only valid during the call
+	 * @param data the byte array containing the data
+	 * @param offset the start of the data
+	 * @param length the length of the data
+	 * @return true to continue scanning, false to stop
+	 */
+	abstract boolean onData(byte[] data, int offset, int length);
+
+	/** Scan a chunk of ECI escaped bytes
+	 * @param data the byte array containing the chunk
+	 * @param offset the start of the chunk
+	 * @param length the length of the chunk
+	 * @return the count of bytes consumed, less than length only if scanning was stopped by a callback
+	 */
+	final int scan(byte[] data, int offset, int length)
+	{
+		int end = offset + length;
+		int ii = offset;
+
+		while (ii < end)
+		{
+			if (pendingLength > 0)
+			{
+				byte iiByte = data[ii];
+
+				if ((1 == pendingLength) && (ECIEscaping.BACKSLASH == iiByte))
+				{
+					// escaped backslash pair
+					if (!start())
+					{
+						return ii - offset;
+					}
+					pendingLength = 0;
+					++ii;
+					if (!onData(pending, 0, 1))
+					{
+						return ii - offset;
+					}
+				}
+				else if ((iiByte >= 0x30) && (iiByte <= 0x39))
+				{
+					pending[pendingLength] = iiByte;
+					++pendingLength;
+					++ii;
+					if (ECIEscaping.DESIGNATOR_LENGTH == pendingLength)
+					{
+						pendingLength = 0;
+						started = true;
+						if (!onECI(ECIEscaping.parseDigits(pending, 1)))
+						{
+							return ii - offset;
+						}
+					}
+				}
+				else
+				{
+					// not an ECI designator, the pending bytes are data and the current byte is scanned again
+					if (!start())
+					{
+						return ii - offset;
+					}
+					int size = pendingLength;
+					pendingLength = 0;
+					if (!onData(pending, 0, size))
+					{
+						return ii - offset;
+					}
+				}
+				continue;
+			}
+
+			int next = ECIEscaping.indexOfBackslash(data, ii, end);
+
+			if (next > ii)
+			{
+				if (!start())
+				{
+					return ii - offset;
+				}
+				int runStart = ii;
+				ii = next;
+				if (!onData(data, runStart, next - runStart))
+				{
+					return ii - offset;
+				}
+				continue;
+			}
+
+			pending[0] = ECIEscaping.BACKSLASH;
+			pendingLength = 1;
+			++ii;
+		}
+
+		return length;
+	}
+
+	/** Finish scanning, the pending bytes are reported as data,
+	 * and an empty first segment with the ECI 0 is reported if nothing has been reported.
+	 * The scanner is reset afterwards.
+	 */
+	final void finish()
+	{
+		if ((pendingLength > 0) || (!started))
+		{
+			if (start() && (pendingLength > 0))
+			{
+				onData(pending, 0, pendingLength);
+			}
+		}
+		reset();
+	}
+
+	/** Reset the scanner to scan new data
+	 */
+	void reset()
+	{
+		pendingLength = 0;
+		started = false;
+	}
+
+	/** get the count of bytes held for a possible ECI designator or escaped backslash pair
+	 * @return the count of bytes held
+	 */
+	final int getPendingLength()
+	{
+		return pendingLength;
+	}
+
+	/** Report the first segment with the ECI 0 if no segment has been reported
+	 * @return true to continue scanning, false to stop
+	 */
+	private boolean start()
+	{
+		if (started)
+		{
+			return true;
+		}
+		started = true;
+		return onECI(0);
+	}
+}
@@ -1,9 +1,13 @@
 package benjaminshi.aim.eci;
 
-import java.util.ArrayList;
-import java.util.Hashtable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import java.util.List;
 
 /** The Class used to represent a ECI segment in the data analysis process under ECI protocol 
  * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
@@ -24,9 +28,11 @@ public class ECISegment
 	 * @param eCIValue the ECI Value in Integer of this segment, in [0, 999999]
 	 */
 	public void setECIValue(int eCIValue) {
-		if ((eCIValue >= 0) && (eCIValue <= 999999))
+		if ((eCIValue >= 0) && (eCIValue <= 999999) && (eCIValue != ECIValue))
         {
             ECIValue = eCIValue;
+            SegmentText = null;
+            EscapedSegmentText = null;
         }
 	}
 	
@@ -36,7 +42,7 @@ public class ECISegment
 	public String getECI() {
 		if ((ECIValue >= 0) && (ECIValue <= 999999))
         {
-            return String.format("%06d", ECIValue);
+            return ECIEscaping.eciString(ECIValue);
         }
         else
         {
@@ -48,20 +54,50 @@ public class ECISegment
 	 * @param ECI the ECI in String of this segment, in [000000, 999999]
 	 */
 	public void setECI(String ECI) {
-		int val = -1;
-
-		try
+		setECIValue(parseECIString(ECI));
+	}
+	
+	/** parse the ECI in String like {@link Integer#parseInt(String)}, without throwing for malformed strings
+	 * @param ECI the ECI in String
+	 * @return the value of the ECI, -1 if the string is not a number in [0, 999999]
+	 */
+	static int parseECIString(String ECI) {
+		if ((null == ECI) || (ECI.length() <= 0))
 		{
-			val = Integer.parseInt(ECI);
+			return -1;
 		}
-		catch (NumberFormatException ex)
+		
+		int ii = 0;
+		boolean negative = false;
+		
+		if (('+' == ECI.charAt(0)) || ('-' == ECI.charAt(0)))
 		{
-			val = -1;
+			negative = ('-' == ECI.charAt(0));
+			++ii;
 		}
-		if ((val >= 0) && (val <= 999999))
-        {
-            ECIValue = val;
-        }
+		if (ii >= ECI.length())
+		{
+			return -1;
+		}
+		
+		int val = 0;
+		
+		for (;ii < ECI.length();++ii)
+		{
+			int digit = Character.digit(ECI.charAt(ii), 10);
+			
+			if (digit < 0)
+			{
+				return -1;
+			}
+			val = val * 10 + digit;
+			if (val > 999999)
+			{
+				return -1;
+			}
+		}
+		
+		return (negative && (val > 0)) ? -1 : val;
 	}
 	
 	/** get the ECI escape sequence of this segment
@@ -69,21 +105,11 @@ public class ECISegment
 	 */
 	public byte[] getEscapeECISequence()
     {
-		String eci = getECI();
-		
 		byte[] seq = null;
 		
-		if (eci.length() > 0)
+		if ((ECIValue >= 0) && (ECIValue <= 999999))
 		{
-			eci = "\\" + eci;
-			try
-			{
-				seq = eci.getBytes("ISO-8859-1");
-			}
-			catch (Exception ex)
-			{
-				seq = null;
-			}
+			seq = ECIEscaping.designator(ECIValue);
 		}
 		return seq;
 	}
@@ -92,23 +118,19 @@ public class ECISegment
 	 * @return the charset of this segment
 	 */
 	public String getCharset() {
-		int eci = this.getECIValue();
-		
-		if (ECI_TO_CHARSET.containsKey(eci))
-		{
-			return ECI_TO_CHARSET.get(eci);
-		}
-		
-		return "";
+		return charsetNameOf(this.ECIValue);
 	}
 
-	/** set the charset of this segment, and will auto set the ECI if success
+	/** set the charset of this segment, and will auto set the ECI if success. 
+	 * The charset is matched ignoring case and punctuation, see {@link ECIRegistry#getECIValue(String)}.
 	 * @param charset the charset of this segment, like "UTF-8", "ISO-8859-1"
 	 */
 	public void setCharset(String charset) {
-		if (CHARSET_TO_ECI.containsKey(charset))
+		int eci = ECIRegistry.getECIValue(charset);
+		
+		if (eci >= 0)
 		{
-			this.setECIValue(CHARSET_TO_ECI.get(charset));
+			this.setECIValue(eci);
 		}
 	}
 	
@@ -116,195 +138,471 @@ public class ECISegment
 	 * @return the encoding display name or description of this segment
 	 */
 	public String getEncodingDisplayName() {
-		String charset = this.getCharset();
-		
-		if ((charset.length() > 0) && (CHARSET_DISPLAYNAME.containsKey(charset))) 
-			charset = CHARSET_DISPLAYNAME.get(charset);
-		else
-			charset = "";
-		return charset;
+		return ECIRegistry.snapshot().displayNameOf(this.ECIValue);
 	}
 
 	protected byte[] SegmentData = null;
 
+	protected byte[] SliceArray = null;
+
+	protected int SliceOffset = 0;
+
+	protected int SliceLength = 0;
+
+	/** the cached representations of the segment data, computed on first access and dropped when the segment changes */
+	protected String SegmentText = null;
+
+	protected byte[] EscapedSegmentData = null;
+
+	protected String EscapedSegmentText = null;
+
+	/** set the segment data or the slice, and drop the cached representations
+	 */
+	private void setData(byte[] segmentData, byte[] sliceArray, int sliceOffset, int sliceLength) {
+		this.SegmentData = segmentData;
+		this.SliceArray = sliceArray;
+		this.SliceOffset = sliceOffset;
+		this.SliceLength = sliceLength;
+		this.SegmentText = null;
+		this.EscapedSegmentData = null;
+		this.EscapedSegmentText = null;
+	}
+
 	/** get the segment data hex byte array of this segment, which is un-escaped under ECI protocol.
+	 * If this segment is a slice, the slice is un-escaped on the first call.
 	 * @return the segment data hex byte array of this segment
 	 */
 	public byte[] getSegmentData() {
+		if ((null == SegmentData) && (null != SliceArray))
+		{
+			SegmentData = ECIEscaping.unescape(SliceArray, SliceOffset, SliceLength);
+		}
 		return SegmentData;
 	}
 
-	/** set the segment data hex byte array of this segment, which is escaped under ECI protocol.
-	 * @param data the segment data hex byte array of this segment
+	/** get the length of the un-escaped segment data of this segment, without un-escaping a slice
+	 * @return the length of the un-escaped segment data, 0 if there is no segment data
 	 */
-	public void setSegmentData(byte[] data) {
-		byte[] segmentData = null;
-		
-		if (null != data)
+	public int getSegmentDataLength() {
+		if (null != SegmentData)
 		{
-			byte iiByte;
-			int ii;
-			int size = 0;
-			
-			for (ii = 0;ii < data.length; ++ii)
+			return SegmentData.length;
+		}
+		if (null != SliceArray)
+		{
+			return ECIEscaping.unescapedLength(SliceArray, SliceOffset, SliceLength);
+		}
+		return 0;
+	}
+
+	/** copy the un-escaped segment data of this segment into a caller-owned byte array,
+	 * a slice is un-escaped directly into dst without allocating.
+	 * @param dst the byte array to copy the segment data into
+	 * @param offset the start in dst
+	 * @return the count of bytes copied, -1 if dst has not enough room from offset, when nothing is copied
+	 */
+	public int copySegmentData(byte[] dst, int offset) {
+		if (null != SegmentData)
+		{
+			if (offset + SegmentData.length > dst.length)
 			{
-				iiByte = data[ii];
-				++size;
-				if ((0x5C == iiByte) && (ii + 1 < data.length) && (0x5C == data[ii + 1]))
-				{
-					++ii;
-				}
+				return -1;
 			}
-			
-			segmentData = new byte[size];
-			int pos = 0;
-			for (ii = 0;ii < data.length; ++ii)
+			System.arraycopy(SegmentData, 0, dst, offset, SegmentData.length);
+			return SegmentData.length;
+		}
+		if (null != SliceArray)
+		{
+			if (offset + ECIEscaping.unescapedLength(SliceArray, SliceOffset, SliceLength) > dst.length)
 			{
-				iiByte = data[ii];
-				segmentData[pos] = iiByte;
-				++pos;
-				if ((0x5C == iiByte) && (ii + 1 < data.length) && (0x5C == data[ii + 1]))
-				{
-					++ii;
-				}
+				return -1;
 			}
+			return ECIEscaping.unescape(SliceArray, SliceOffset, SliceLength, dst, offset);
 		}
-		
-		this.SegmentData = segmentData;
+		return 0;
+	}
+
+	/** get the length of the segment data of this segment after escaping, without allocating
+	 * @return the length of the escaped segment data, 0 if there is no segment data
+	 */
+	int escapedSegmentDataLength() {
+		if (null != SegmentData)
+		{
+			return ECIEscaping.escapedLength(SegmentData, 0, SegmentData.length);
+		}
+		if (null != SliceArray)
+		{
+			return ECIEscaping.canonicalLength(SliceArray, SliceOffset, SliceLength);
+		}
+		return 0;
+	}
+
+	/** escape the segment data of this segment into a byte array, without allocating. 
+	 * The room of {@link #escapedSegmentDataLength()} from offset must be available.
+	 * @param dst the byte array to write the escaped segment data into
+	 * @param offset the position in dst to write to
+	 * @return the count of bytes written
+	 */
+	int writeEscapedSegmentData(byte[] dst, int offset) {
+		if (null != SegmentData)
+		{
+			return ECIEscaping.escape(SegmentData, 0, SegmentData.length, dst, offset);
+		}
+		if (null != SliceArray)
+		{
+			return ECIEscaping.canonicalize(SliceArray, SliceOffset, SliceLength, dst, offset);
+		}
+		return 0;
+	}
+
+	/** reset this segment to a new segment, with no ECI and no segment data, to be reused
+	 */
+	public void reset() {
+		ECIValue = -1;
+		setData(null, null, 0, 0);
+	}
+
+	/** set the segment data hex byte array of this segment, which is escaped under ECI protocol.
+	 * @param data the segment data hex byte array of this segment
+	 */
+	public void setSegmentData(byte[] data) {
+		if (null != data)
+		{
+			setSegmentData(data, 0, data.length, false);
+		}
+		else
+		{
+			setData(null, null, 0, 0);
+		}
+	}
+	
+	/** set the segment data of this segment from a range of byte array, which is escaped under ECI protocol.
+	 * @param data the byte array containing the escaped segment data
+	 * @param offset the start of the segment data in data
+	 * @param length the length of the segment data in data
+	 * @param slice true to keep this segment as a slice of data, which is un-escaped only when {@link #getSegmentData()} is called, 
+	 * false to un-escape a copy of the segment data now
+	 */
+	public void setSegmentData(byte[] data, int offset, int length, boolean slice) {
+		if (slice)
+		{
+			setData(null, data, offset, length);
+		}
+		else
+		{
+			setData(ECIEscaping.unescape(data, offset, length), null, 0, 0);
+		}
+	}
+	
+	/** set the segment data of this segment, which is already un-escaped under ECI protocol.
+	 * @param data the un-escaped segment data, owned by this segment afterwards
+	 */
+	void setUnescapedSegmentData(byte[] data) {
+		setData(data, null, 0, 0);
+	}
+	
+	/** check if this segment is a slice of the parsed byte array
+	 * @return true if this segment is a slice of the parsed byte array
+	 */
+	public boolean isSlice() {
+		return (null != SliceArray);
+	}
+	
+	/** get the byte array this segment is a slice of
+	 * @return the byte array this segment is a slice of, null if this segment is not a slice
+	 */
+	public byte[] getSliceArray() {
+		return SliceArray;
+	}
+	
+	/** get the start of the escaped segment data in the slice array
+	 * @return the start of the escaped segment data in the slice array
+	 */
+	public int getSliceOffset() {
+		return SliceOffset;
+	}
+	
+	/** get the length of the escaped segment data in the slice array
+	 * @return the length of the escaped segment data in the slice array
+	 */
+	public int getSliceLength() {
+		return SliceLength;
 	}
 	
 	/** get the text representation of the segment, which is un-escaped under ECI protocol.
+	 * The text is decoded on the first call and cached until the segment changes.
 	 * @return the text representation of the segment
 	 */
 	public String getSegmentText() {
-		String text = "";
-		String charset = this.getCharset();
+		String text = this.SegmentText;
 		
-		if (charset.length() > 0)
+		if (null == text)
 		{
-			try
+			Charset charset = charsetOf(this.ECIValue);
+			byte[] segmentData = this.getSegmentData();
+			
+			text = "";
+			if ((null != charset) && (null != segmentData))
 			{
-				text = new String(this.SegmentData, charset);
+				text = new String(segmentData, charset);
 			}
-			catch (Exception ex)
+			else if ((null != segmentData) && (charsetNameOf(this.ECIValue).length() > 0))
 			{
-				text = "";
+				ECIMetrics.decodeFailed(this.ECIValue);
 			}
+			this.SegmentText = text;
 		}
 		
 		return text;
 	}
 
+	/** decode the segment data into a caller-supplied char buffer, with the cached decoder of the current thread.
+	 * The text is written at the position of dst, and the position is moved past it.
+	 * @param dst the char buffer to decode the segment data into
+	 * @return the count of chars written, 0 if the charset of this segment is not assigned or not supported, 
+	 * or -1 if the remaining of dst is not enough, and nothing is written
+	 */
+	public int getSegmentText(CharBuffer dst) {
+		return decodeSegmentText(dst, false);
+	}
+	
+	/** decode the segment data into a caller-supplied char buffer like {@link #getSegmentText(CharBuffer)}, 
+	 * optionally decoding the data of an unassigned ECI, such as the default ECI 0 of a payload without designator, 
+	 * as ISO-8859-1 like {@link #setSegmentText(String)}
+	 * @param dst the char buffer to decode the segment data into
+	 * @param fallback whether to decode the data of an unassigned ECI as ISO-8859-1 instead of skipping it
+	 * @return the count of chars written, or -1 if the remaining of dst is not enough, and nothing is written
+	 */
+	int decodeSegmentText(CharBuffer dst, boolean fallback) {
+		byte[] segmentData = this.getSegmentData();
+		
+		if (null == segmentData)
+		{
+			return 0;
+		}
+		
+		ECICoders coders = ECICoders.get();
+		CharsetDecoder decoder = fallback ? coders.textDecoder(this.ECIValue) : coders.decoder(this.ECIValue);
+		
+		if (null == decoder)
+		{
+			if (charsetNameOf(this.ECIValue).length() > 0)
+			{
+				ECIMetrics.decodeFailed(this.ECIValue);
+			}
+			return 0;
+		}
+		
+		int start = dst.position();
+		CoderResult result = decoder.decode(coders.wrap(segmentData), dst, true);
+		
+		if (!result.isOverflow())
+		{
+			result = decoder.flush(dst);
+		}
+		
+		if (result.isOverflow())
+		{
+			dst.position(start);
+			return -1;
+		}
+		
+		return dst.position() - start;
+	}
+	
+	/** decode the segment data into a caller-supplied char array, with the cached decoder of the current thread.
+	 * @param dst the char array to decode the segment data into
+	 * @param offset the position in dst to write to
+	 * @return the count of chars written, 0 if the charset of this segment is not assigned or not supported, 
+	 * or -1 if the room of dst is not enough
+	 */
+	public int getSegmentText(char[] dst, int offset) {
+		return getSegmentText(ECICoders.get().wrap(dst, offset, dst.length - offset));
+	}
+	
+	/** encode the text with the charset of this segment into a caller-supplied byte buffer, with the cached encoder of the current thread. 
+	 * The text is not escaped, and ISO-8859-1 is used if the ECI of this segment is not assigned.
+	 * The bytes are written at the position of dst, and the position is moved past them.
+	 * @param text the text to encode
+	 * @param dst the byte buffer to encode the text into
+	 * @return the count of bytes written, or -1 if the charset of this segment is not supported 
+	 * or the remaining of dst is not enough, and nothing is written
+	 */
+	public int encodeSegmentText(CharSequence text, ByteBuffer dst) {
+		CharsetEncoder encoder = ECICoders.get().encoder(this.ECIValue);
+		
+		if (null == encoder)
+		{
+			ECIMetrics.encodeFailed(this.ECIValue);
+			return -1;
+		}
+		
+		int start = dst.position();
+		CoderResult result = encoder.encode(CharBuffer.wrap(text), dst, true);
+		
+		if (!result.isOverflow())
+		{
+			result = encoder.flush(dst);
+		}
+		
+		if (result.isOverflow())
+		{
+			dst.position(start);
+			return -1;
+		}
+		
+		return dst.position() - start;
+	}
+
 	/** set the text representation of the segment, which is escaped under ECI protocol.
 	 * @param segmentText the text representation of the segment
 	 */
 	public void setSegmentText(String segmentText) {
-		String charset = this.getCharset();
+		Charset charset = textCharsetOf(this.ECIValue);
 		
-		if (charset.length() <= 0) charset = "ISO-8859-1";
-		try
+		if ((null != charset) && (null != segmentText))
 		{
 			this.setSegmentData(segmentText.getBytes(charset));
 		}
-		catch (Exception ex)
+		else if (null != segmentText)
 		{
-			
+			ECIMetrics.encodeFailed(this.ECIValue);
 		}
 	}
 	
 	/** get the segment data hex byte array of this segment, which is escaped under ECI protocol.
+	 * The returned array is a new copy owned by the caller.
 	 * @return the segment data hex byte array of this segment
 	 */
 	public byte[] getEscapedSegmentData()
 	{
-		byte[] escapedSegmentData = null;
+		byte[] escapedSegmentData = this.escapedSegmentData();
 		
-		if (null != this.SegmentData)
+		return (null == escapedSegmentData) ? null : escapedSegmentData.clone();
+	}
+	
+	/** get the escaped segment data of this segment without copying, for callers in this package which do not modify it.
+	 * The escaped data is computed on the first call and cached until the segment changes, 
+	 * it is the segment data itself if there is nothing to escape.
+	 * @return the escaped segment data of this segment, null if there is no segment data
+	 */
+	byte[] escapedSegmentData()
+	{
+		byte[] escapedSegmentData = this.EscapedSegmentData;
+		byte[] segmentData = this.getSegmentData();
+		
+		if ((null == escapedSegmentData) && (null != segmentData))
 		{
-			int ii = 0;
-			int pos = 0;
-			int size = 0;
+			int size = ECIEscaping.escapedLength(segmentData, 0, segmentData.length);
 			
-			for (ii = 0;ii < this.SegmentData.length;++ii)
+			if (size == segmentData.length)
 			{
-				++size;
-				if (0x5C == this.SegmentData[ii])
-				{
-					++size;
-				}
+				escapedSegmentData = segmentData;
 			}
-			
-			escapedSegmentData = new byte[size];
-			
-			for (ii = 0;ii < this.SegmentData.length;++ii)
+			else
 			{
-				escapedSegmentData[pos] = this.SegmentData[ii];
-				++pos;
-				if (0x5C == this.SegmentData[ii])
-				{
-					escapedSegmentData[pos] = this.SegmentData[ii];
-					++pos;
-				}
+				escapedSegmentData = new byte[size];
+				ECIEscaping.escape(segmentData, 0, segmentData.length, escapedSegmentData, 0);
 			}
+			this.EscapedSegmentData = escapedSegmentData;
 		}
 		
 		return escapedSegmentData;
 	}
 	
 	/** get the text representation of segment data of this segment, which is escaped under ECI protocol.
+	 * The text is decoded on the first call and cached until the segment changes.
 	 * @return the text representation of segment data of this segment
 	 */
 	public String getEscapedSegmentText()
 	{
-		String text = "";
+		String text = this.EscapedSegmentText;
 		
-		String charset = this.getCharset();
-		
-		if (charset.length() <= 0) charset = "ISO-8859-1";
-		
-		try
-		{
-			text = new String(this.getEscapedSegmentData(), charset);
-		}
-		catch (Exception ex)
+		if (null == text)
 		{
+			Charset charset = textCharsetOf(this.ECIValue);
+			byte[] escapedSegmentData = this.escapedSegmentData();
+			
 			text = "";
+			if ((null != charset) && (null != escapedSegmentData))
+			{
+				text = new String(escapedSegmentData, charset);
+			}
+			else if (null != escapedSegmentData)
+			{
+				ECIMetrics.decodeFailed(this.ECIValue);
+			}
+			this.EscapedSegmentText = text;
 		}
 		
 		return text;
 	}
 	
-	static Map<Integer, String> ECI_TO_CHARSET = null;
-    static Map<String, Integer> CHARSET_TO_ECI = null;
-
-    static Map<String, String> CHARSET_DISPLAYNAME = null;
+	/** the size of the tables indexed by ECI value, all assigned ECIs are below it */
+	static final int ECI_TABLE_SIZE = 256;
+	
+	/** get the charset name of the ECI from the current {@link ECIRegistry} snapshot without locking
+	 * @param eci the value of the ECI
+	 * @return the charset name, "" if the ECI is not assigned
+	 */
+	static String charsetNameOf(int eci)
+	{
+		return ECIRegistry.snapshot().charsetNameOf(eci);
+	}
+	
+	/** get the charset of the ECI from the current {@link ECIRegistry} snapshot without locking
+	 * @param eci the value of the ECI
+	 * @return the charset, null if the ECI is not assigned or its charset is not supported by the runtime
+	 */
+	static Charset charsetOf(int eci)
+	{
+		return ECIRegistry.snapshot().charsetOf(eci);
+	}
+	
+	/** get the charset used to convert the text of the ECI, ISO-8859-1 if the ECI is not assigned
+	 * @param eci the value of the ECI
+	 * @return the charset, null if the charset of the ECI is not supported by the runtime
+	 */
+	static Charset textCharsetOf(int eci)
+	{
+		Charset charset = charsetOf(eci);
+		
+		if ((null == charset) && (charsetNameOf(eci).length() <= 0))
+		{
+			charset = StandardCharsets.ISO_8859_1;
+		}
+		
+		return charset;
+	}
+	
+	/** the built-in ECIs, the first assignments of {@link ECIRegistry} */
+	private static ECIRegistry.Builder BUILTIN_ECIS = null;
 
     static void matchECItoCharset(int eci, String charset)
     {
-    	if (!ECI_TO_CHARSET.containsKey(eci))
-    		ECI_TO_CHARSET.put(eci, charset);
-    	CHARSET_TO_ECI.put(charset, eci);
+    	BUILTIN_ECIS.matchECItoCharset(eci, charset);
     }
 
     static void matchECItoCharset(int eci, String[] charsets)
     {
-        if ((null != charsets) && (charsets.length > 0))
-        	ECI_TO_CHARSET.put(eci, charsets[0]);
-        for (String charset : charsets)
-        {
-        	CHARSET_TO_ECI.put(charset, eci);
-        }
+    	BUILTIN_ECIS.matchECItoCharset(eci, charsets);
     }
     
     static void matchCharsetDisplayName(String charset, String name)
     {
-    	CHARSET_DISPLAYNAME.put(charset, name);
+    	BUILTIN_ECIS.matchCharsetDisplayName(charset, name);
+    }
+    
+    /** get the built-in ECIs
+     * @return the builder holding the built-in ECIs
+     */
+    static ECIRegistry.Builder builtinECIs()
+    {
+    	return BUILTIN_ECIS;
     }
     
 	static {
-		ECI_TO_CHARSET = new Hashtable<Integer, String>();
-		CHARSET_TO_ECI = new Hashtable<String, Integer>();
-		CHARSET_DISPLAYNAME = new Hashtable<String, String>();
+		BUILTIN_ECIS = new ECIRegistry.Builder();
 		
 		//add known charsetECI
 		matchECItoCharset(-1, ""); //Default
@@ -750,28 +1048,32 @@ public class ECISegment
 	 */
 	public static ECIInfo[] AllCharasetECIInfo()
     {
+        ECIRegistry.Snapshot registry = ECIRegistry.snapshot();
+        Map<Integer, String> eciToCharset = registry.ECIToCharset;
         ECIInfo[] allinfo = null;
-        if (ECI_TO_CHARSET.containsKey(0))
+        if (eciToCharset.containsKey(0))
         {
-            allinfo = new ECIInfo[ECI_TO_CHARSET.size() - 1];
+            allinfo = new ECIInfo[eciToCharset.size() - 1];
         }
         else
         {
-            allinfo = new ECIInfo[ECI_TO_CHARSET.size()];
+            allinfo = new ECIInfo[eciToCharset.size()];
         }
 
         int pos = 0;
 
-        for (int eci : ECI_TO_CHARSET.keySet())
+        for (Map.Entry<Integer, String> entry : eciToCharset.entrySet())
         {
+            int eci = entry.getKey();
+
             if (0 != eci)
             {
                 ECIInfo info = new ECIInfo();
 
                 info.ECIValue = eci;
-                info.ECI = String.format("%06d", eci);
-                info.Charset = ECI_TO_CHARSET.get(eci);
-                info.EncodingDisplayName = CHARSET_DISPLAYNAME.get(info.Charset);
+                info.ECI = (eci >= 0) ? ECIEscaping.eciString(eci) : "";
+                info.Charset = entry.getValue();
+                info.EncodingDisplayName = registry.CharsetDisplayName.get(info.Charset);
 
                 allinfo[pos] = info;
                 ++pos;
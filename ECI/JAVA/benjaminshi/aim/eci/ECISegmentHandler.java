@@ -0,0 +1,24 @@
+package benjaminshi.aim.eci;
+
+/** The handler of the ECIs and the un-escaped data parsed by {@link AIMECI#parseECI(byte[], ECISegmentHandler)},
+ * called in the order of the data without creating any {@link ECISegment}.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public interface ECISegmentHandler {
+
+	/** Called when a new segment starts, the first segment has the ECI 0 if the data does not start with an ECI designator
+	 * @param eciValue the value of the ECI, in [0, 999999]
+	 * @return true to continue parsing, false to stop
+	 */
+	boolean onECI(int eciValue);
+
+	/** Called for a run of un-escaped data of the current segment, a segment may be reported in several runs.
+	 * The bytes are only valid during the call, and must not be modified.
+	 * @param data the byte array containing the data
+	 * @param offset the start of the data
+	 * @param length the length of the data
+	 * @return true to continue parsing, false to stop
+	 */
+	boolean onData(byte[] data, int offset, int length);
+}
@@ -0,0 +1,68 @@
+package benjaminshi.aim.eci;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** The List of {@link ECISegment} which recycles its segments, used as a caller-owned reusable result of 
+ * {@link AIMECI#parseECI(byte[], ECISegmentList)}. After warm-up, parsing into the same list allocates nothing.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public class ECISegmentList extends ArrayList<ECISegment> {
+
+	private static final long serialVersionUID = 1L;
+
+	/** the recycled segments ready to be reused, created on the first recycle, 
+	 * so a list which is never recycled or is deserialized has none */
+	private transient ECISegment[] spare = null;
+
+	private transient int spareCount = 0;
+
+	/** Recycle all segments of this list for reuse, and empty this list. 
+	 * The recycled segments are reset when reused, so they must not be used by the caller afterwards.
+	 */
+	public void recycle()
+	{
+		int size = this.size();
+
+		if (null == spare)
+		{
+			spare = new ECISegment[Math.max(4, size)];
+		}
+		else if (spareCount + size > spare.length)
+		{
+			spare = Arrays.copyOf(spare, Math.max(spare.length * 2, spareCount + size));
+		}
+		for (int ii = 0;ii < size;++ii)
+		{
+			spare[spareCount] = this.get(ii);
+			++spareCount;
+		}
+
+		this.clear();
+	}
+
+	/** Add a segment to the end of this list, a recycled segment is reused if there is one
+	 * @return the added segment, reset
+	 */
+	ECISegment addSegment()
+	{
+		ECISegment seg;
+
+		if (spareCount > 0)
+		{
+			--spareCount;
+			seg = spare[spareCount];
+			spare[spareCount] = null;
+			seg.reset();
+		}
+		else
+		{
+			seg = new ECISegment();
+		}
+
+		this.add(seg);
+
+		return seg;
+	}
+}
@@ -0,0 +1,143 @@
+package benjaminshi.aim.eci;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** The incremental parser for ECI escaped bytes arriving in chunks, like the reads from serial or USB-HID scanners.
+ * An ECI designator or an escaped backslash pair may be split across chunks,
+ * and every {@link ECISegment} is returned as soon as the next ECI designator closes it.
+ * The segments are the same as {@link AIMECI#parseECI(byte[])} on the whole data.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public class ECIStreamParser {
+
+	private final ECIScanner scanner = new ECIScanner() {
+
+		@Override
+		boolean onECI(int eciValue) {
+			closeSegment();
+			current = new ECISegment();
+			current.setECIValue(eciValue);
+			return true;
+		}
+
+		@Override
+		boolean onData(byte[] data, int offset, int length) {
+			appendData(data, offset, length);
+			return true;
+		}
+	};
+
+	/** the segment not closed yet */
+	private ECISegment current = null;
+
+	/** the un-escaped data of the segment not closed yet */
+	private byte[] buffer = new byte[64];
+
+	private int bufferLength = 0;
+
+	private List<ECISegment> completed = new ArrayList<ECISegment>();
+
+	/** Feed a chunk of ECI escaped bytes
+	 * @param data the byte array containing the chunk
+	 * @return List of {@link ECISegment} closed by this chunk, may be empty
+	 */
+	public List<ECISegment> feed(byte[] data)
+	{
+		return feed(data, 0, data.length);
+	}
+
+	/** Feed a chunk of ECI escaped bytes
+	 * @param data the byte array containing the chunk
+	 * @param offset the start of the chunk
+	 * @param length the length of the chunk
+	 * @return List of {@link ECISegment} closed by this chunk, may be empty
+	 */
+	public List<ECISegment> feed(byte[] data, int offset, int length)
+	{
+		if ((offset < 0) || (length < 0) || (offset + length > data.length))
+		{
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + data.length);
+		}
+
+		scanner.scan(data, offset, length);
+
+		return takeCompleted();
+	}
+
+	/** Finish the data, the pending bytes are added to the last segment,
+	 * and the parser is reset to parse new data afterwards.
+	 * @return List of {@link ECISegment} not returned yet, including the last segment
+	 */
+	public List<ECISegment> finish()
+	{
+		scanner.finish();
+		closeSegment();
+
+		return takeCompleted();
+	}
+
+	/** Drop all pending bytes and segments, to parse new data
+	 */
+	public void reset()
+	{
+		scanner.reset();
+		current = null;
+		bufferLength = 0;
+		completed.clear();
+	}
+
+	/** get the count of bytes held by the parser, the data of the segment not closed yet
+	 * and the bytes of a possible ECI designator or escaped backslash pair split by the chunk end
+	 * @return the count of bytes held by the parser
+	 */
+	public int getPendingLength()
+	{
+		return bufferLength + scanner.getPendingLength();
+	}
+
+	/** get the ECI value of the segment not closed yet
+	 * @return the ECI value of the segment not closed yet, -1 if no segment has started
+	 */
+	public int getCurrentECIValue()
+	{
+		return (null != current) ? current.getECIValue() : -1;
+	}
+
+	private void appendData(byte[] data, int offset, int length)
+	{
+		if (bufferLength + length > buffer.length)
+		{
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferLength + length));
+		}
+		System.arraycopy(data, offset, buffer, bufferLength, length);
+		bufferLength += length;
+	}
+
+	private void closeSegment()
+	{
+		if (null != current)
+		{
+			current.setUnescapedSegmentData(Arrays.copyOf(buffer, bufferLength));
+			completed.add(current);
+			current = null;
+			bufferLength = 0;
+		}
+	}
+
+	private List<ECISegment> takeCompleted()
+	{
+		if (completed.isEmpty())
+		{
+			return Collections.emptyList();
+		}
+
+		List<ECISegment> segments = completed;
+		completed = new ArrayList<ECISegment>();
+
+		return segments;
+	}
+}
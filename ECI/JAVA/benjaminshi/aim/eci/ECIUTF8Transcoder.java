@@ -0,0 +1,569 @@
+package benjaminshi.aim.eci;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** The transcoder converting ECI escaped transmit data into the UTF-8 bytes of its text in one pass,
+ * into a caller-supplied byte array. The result is the same as the UTF-8 bytes of the text of all segments,
+ * see {@link ECISegment#getSegmentText()}, without the intermediate segment data, strings and byte arrays,
+ * except that the data of an unassigned ECI, such as a payload without designator, is decoded as ISO-8859-1
+ * like {@link ECISegment#setSegmentText(String)} instead of being dropped.
+ * The segments of ECI 26 (UTF-8) are copied as is when they are valid UTF-8,
+ * and the leading ASCII bytes of the segments of ASCII compatible charsets are copied without decoding.
+ * A transcoder keeps its buffers between calls, so it is reusable but not thread safe.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+public final class ECIUTF8Transcoder {
+
+	/** the most UTF-8 bytes of one byte of segment data, the replacement character U+FFFD of a malformed byte */
+	private static final int MAX_BYTES_PER_BYTE = 3;
+
+	private final ECISegmentList segments = new ECISegmentList();
+
+	/** the un-escaped data of the segment being transcoded */
+	private byte[] data = new byte[256];
+
+	/** the decoded text of the segment being transcoded */
+	private CharBuffer text = CharBuffer.allocate(256);
+
+	/** the count of segments skipped by the last transcoding */
+	private int skippedSegments = 0;
+
+	/** the scanner transcoding the segments of a direct byte buffer in place, created on the first one */
+	private ECIBufferScanner bufferScanner = null;
+
+	/** the destination of the byte buffer being transcoded */
+	private byte[] bufferDst = null;
+
+	/** the position in {@link #bufferDst} to write to, -1 once its room is not enough */
+	private int bufferPos = 0;
+
+	/** whether the charsets decode every byte in [0x00, 0x7F] to the same ASCII character */
+	private final Map<Charset, Boolean> asciiCompatible = new HashMap<Charset, Boolean>();
+
+	/** get the most UTF-8 bytes transcoded from ECI escaped transmit data, to size the destination
+	 * @param escapedLength the length of the ECI escaped transmit data
+	 * @return the most UTF-8 bytes transcoded from the data
+	 */
+	public static int maxUTF8Length(int escapedLength)
+	{
+		return (int) Math.min(Integer.MAX_VALUE, (long) escapedLength * MAX_BYTES_PER_BYTE);
+	}
+
+	/** Transcode ECI escaped transmit data into the UTF-8 bytes of its text
+	 * @param escapedData the ECI escaped byte array
+	 * @return the UTF-8 bytes of the text of all segments
+	 */
+	public byte[] transcode(byte[] escapedData)
+	{
+		if (null == escapedData)
+		{
+			return new byte[0];
+		}
+
+		byte[] utf8 = new byte[maxUTF8Length(escapedData.length)];
+
+		return Arrays.copyOf(utf8, transcode(escapedData, utf8, 0));
+	}
+
+	/** Transcode ECI escaped transmit data into the UTF-8 bytes of its text, written into a caller-supplied byte array.
+	 * The room of {@link #maxUTF8Length(int)} is always enough.
+	 * @param escapedData the ECI escaped byte array
+	 * @param dst the byte array to write the UTF-8 bytes into
+	 * @param offset the position in dst to write to
+	 * @return the count of bytes written, or -1 if the room of dst is not enough, when dst may be partially written
+	 */
+	public int transcode(byte[] escapedData, byte[] dst, int offset)
+	{
+		if (null == escapedData)
+		{
+			return 0;
+		}
+
+		return transcode(escapedData, 0, escapedData.length, dst, offset);
+	}
+
+	/** Transcode a range of ECI escaped transmit data into the UTF-8 bytes of its text, written into a caller-supplied byte array.
+	 * The room of {@link #maxUTF8Length(int)} of length is always enough.
+	 * @param escapedData the byte array containing the ECI escaped data
+	 * @param offset the start of the range
+	 * @param length the length of the range
+	 * @param dst the byte array to write the UTF-8 bytes into
+	 * @param dstOffset the position in dst to write to
+	 * @return the count of bytes written, or -1 if the room of dst is not enough, when dst may be partially written
+	 */
+	public int transcode(byte[] escapedData, int offset, int length, byte[] dst, int dstOffset)
+	{
+		AIMECI.parseECI(escapedData, offset, length, segments);
+
+		int pos = dstOffset;
+
+		skippedSegments = 0;
+
+		for (int ii = 0;ii < segments.size();++ii)
+		{
+			pos = transcodeSegment(segments.get(ii), dst, pos);
+			if (pos < 0)
+			{
+				break;
+			}
+		}
+
+		segments.recycle();
+
+		return (pos < 0) ? -1 : (pos - dstOffset);
+	}
+
+	/** Transcode the remaining bytes of ECI escaped byte buffer into the UTF-8 bytes of its text, written into a caller-supplied byte array.
+	 * The bytes between the position and the limit are transcoded in place, for both heap and direct buffers such as a mapped file, 
+	 * and the position is moved to the limit. The room of {@link #maxUTF8Length(int)} of the remaining bytes is always enough.
+	 * @param escapedData the ECI escaped byte buffer
+	 * @param dst the byte array to write the UTF-8 bytes into
+	 * @param offset the position in dst to write to
+	 * @return the count of bytes written, or -1 if the room of dst is not enough, when dst may be partially written
+	 */
+	public int transcode(ByteBuffer escapedData, byte[] dst, int offset)
+	{
+		int start = escapedData.position();
+		int end = escapedData.limit();
+		int length;
+
+		if (escapedData.hasArray())
+		{
+			length = transcode(escapedData.array(), escapedData.arrayOffset() + start, end - start, dst, offset);
+		}
+		else
+		{
+			if (null == bufferScanner)
+			{
+				bufferScanner = new ECIBufferScanner() {
+					@Override
+					void onSegment(int eciValue, ByteBuffer data, int segOffset, int segEnd, int escapedPairs) {
+						if (bufferPos >= 0)
+						{
+							bufferPos = transcodeRange(eciValue, data, segOffset, segEnd, escapedPairs, bufferDst, bufferPos);
+						}
+					}
+				};
+			}
+
+			skippedSegments = 0;
+			bufferDst = dst;
+			bufferPos = offset;
+			bufferScanner.scan(escapedData, start, end);
+			bufferDst = null;
+
+			length = (bufferPos < 0) ? -1 : (bufferPos - offset);
+		}
+
+		escapedData.position(end);
+
+		return length;
+	}
+
+	/** get the count of segments skipped by the last transcoding, 
+	 * the segments of ECIs assigned to a charset which is not supported by the runtime
+	 * @return the count of skipped segments, 0 if all data of the last payload was transcoded
+	 */
+	public int getSkippedSegments()
+	{
+		return skippedSegments;
+	}
+
+	/** Transcode the data of a segment into UTF-8 bytes
+	 * @param seg the segment
+	 * @param dst the byte array to write the UTF-8 bytes into
+	 * @param pos the position in dst to write to
+	 * @return the position in dst after the written bytes, -1 if the room of dst is not enough
+	 */
+	private int transcodeSegment(ECISegment seg, byte[] dst, int pos)
+	{
+		Charset charset = ECISegment.textCharsetOf(seg.getECIValue());
+
+		if (null == charset)
+		{
+			// assigned to a charset the runtime does not support, skipped like getSegmentText
+			ECIMetrics.decodeFailed(seg.getECIValue());
+			++skippedSegments;
+			return pos;
+		}
+
+		byte[] src;
+		int off;
+		int len;
+
+		if (seg.isSlice() && (ECIEscaping.indexOfBackslash(seg.getSliceArray(), seg.getSliceOffset(), seg.getSliceOffset() + seg.getSliceLength())
+				>= seg.getSliceOffset() + seg.getSliceLength()))
+		{
+			// nothing to un-escape, the slice is the segment data
+			src = seg.getSliceArray();
+			off = seg.getSliceOffset();
+			len = seg.getSliceLength();
+		}
+		else if (seg.isSlice())
+		{
+			len = seg.getSegmentDataLength();
+			ensureData(len);
+			src = data;
+			off = 0;
+			seg.copySegmentData(data, 0);
+		}
+		else
+		{
+			src = seg.getSegmentData();
+			off = 0;
+			len = (null != src) ? src.length : 0;
+		}
+
+		return transcodeData(seg.getECIValue(), charset, src, off, len, dst, pos);
+	}
+
+	/** Transcode the escaped data of a segment in a byte buffer into UTF-8 bytes, reading it in place.
+	 * The data of an ASCII compatible charset without escaped backslash is read straight into its place in dst, 
+	 * and only the bytes after its leading ASCII bytes are moved out to be decoded, unless it is valid UTF-8 of ECI 26.
+	 * @param eci the value of the ECI of the segment
+	 * @param escapedData the byte buffer, its position is moved
+	 * @param offset the absolute start of the escaped data of the segment
+	 * @param end the absolute end (exclusive) of the escaped data of the segment
+	 * @param escapedPairs the count of escaped backslash pairs in the range
+	 * @param dst the byte array to write the UTF-8 bytes into
+	 * @param pos the position in dst to write to
+	 * @return the position in dst after the written bytes, -1 if the room of dst is not enough
+	 */
+	private int transcodeRange(int eci, ByteBuffer escapedData, int offset, int end, int escapedPairs, byte[] dst, int pos)
+	{
+		Charset charset = ECISegment.textCharsetOf(eci);
+
+		if (null == charset)
+		{
+			// assigned to a charset the runtime does not support, skipped like getSegmentText
+			ECIMetrics.decodeFailed(eci);
+			++skippedSegments;
+			return pos;
+		}
+
+		int len = end - offset - escapedPairs;
+
+		if ((0 == escapedPairs) && isASCIICompatible(charset))
+		{
+			if (pos + len > dst.length)
+			{
+				return -1;
+			}
+
+			escapedData.position(offset);
+			escapedData.get(dst, pos, len);
+
+			if (StandardCharsets.UTF_8.equals(charset) && isValidUTF8(dst, pos, pos + len))
+			{
+				return pos + len;
+			}
+
+			int ascii = asciiLength(dst, pos, pos + len);
+
+			if (ascii == len)
+			{
+				return pos + len;
+			}
+
+			len -= ascii;
+			ensureData(len);
+			System.arraycopy(dst, pos + ascii, data, 0, len);
+
+			return decode(eci, data, 0, len, dst, pos + ascii);
+		}
+
+		ensureData(len);
+		if (0 == escapedPairs)
+		{
+			escapedData.position(offset);
+			escapedData.get(data, 0, len);
+		}
+		else
+		{
+			ECIEscaping.unescape(escapedData, offset, end - offset, data, 0);
+		}
+
+		return transcodeData(eci, charset, data, 0, len, dst, pos);
+	}
+
+	/** make {@link #data} hold at least the length */
+	private void ensureData(int length)
+	{
+		if (length > data.length)
+		{
+			data = new byte[Math.max(data.length * 2, length)];
+		}
+	}
+
+	/** Transcode the un-escaped data of a segment into UTF-8 bytes
+	 * @param eci the value of the ECI of the segment
+	 * @param charset the charset to decode the data
+	 * @param src the byte array containing the data
+	 * @param off the start of the data
+	 * @param len the length of the data
+	 * @param dst the byte array to write the UTF-8 bytes into
+	 * @param pos the position in dst to write to
+	 * @return the position in dst after the written bytes, -1 if the room of dst is not enough
+	 */
+	private int transcodeData(int eci, Charset charset, byte[] src, int off, int len, byte[] dst, int pos)
+	{
+		if (StandardCharsets.UTF_8.equals(charset) && isValidUTF8(src, off, off + len))
+		{
+			return copy(src, off, len, dst, pos);
+		}
+
+		if (isASCIICompatible(charset))
+		{
+			int ascii = asciiLength(src, off, off + len);
+
+			pos = copy(src, off, ascii, dst, pos);
+			if ((pos < 0) || (ascii == len))
+			{
+				return pos;
+			}
+			off += ascii;
+			len -= ascii;
+		}
+
+		return decode(eci, src, off, len, dst, pos);
+	}
+
+	/** Decode the bytes with the charset of the ECI, and write the text as UTF-8 bytes
+	 * @return the position in dst after the written bytes, -1 if the room of dst is not enough
+	 */
+	private int decode(int eci, byte[] src, int off, int len, byte[] dst, int pos)
+	{
+		ECICoders coders = ECICoders.get();
+		CharsetDecoder decoder = coders.textDecoder(eci);
+		ByteBuffer in = coders.wrap(src);
+
+		in.limit(off + len).position(off);
+		text.clear();
+
+		CoderResult result = decoder.decode(in, text, true);
+
+		while (result.isUnderflow() || result.isOverflow())
+		{
+			if (result.isUnderflow())
+			{
+				result = decoder.flush(text);
+				if (result.isUnderflow())
+				{
+					break;
+				}
+			}
+			else
+			{
+				CharBuffer larger = CharBuffer.allocate(Math.max(text.capacity() * 2, len));
+				text.flip();
+				larger.put(text);
+				text = larger;
+				result = decoder.decode(in, text, true);
+			}
+		}
+		text.flip();
+
+		return encodeUTF8(text.array(), 0, text.limit(), dst, pos);
+	}
+
+	/** Encode the chars as UTF-8 bytes, an unpaired surrogate is encoded as '?' like {@link String#getBytes(Charset)}
+	 * @return the position in dst after the written bytes, -1 if the room of dst is not enough
+	 */
+	private static int encodeUTF8(char[] chars, int off, int end, byte[] dst, int pos)
+	{
+		for (int ii = off;ii < end;++ii)
+		{
+			char c = chars[ii];
+
+			if (c < 0x80)
+			{
+				if (pos >= dst.length)
+				{
+					return -1;
+				}
+				dst[pos++] = (byte) c;
+			}
+			else if (c < 0x800)
+			{
+				if (pos + 2 > dst.length)
+				{
+					return -1;
+				}
+				dst[pos++] = (byte) (0xC0 | (c >> 6));
+				dst[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else if (Character.isSurrogate(c))
+			{
+				if (Character.isHighSurrogate(c) && (ii + 1 < end) && Character.isLowSurrogate(chars[ii + 1]))
+				{
+					int cp = Character.toCodePoint(c, chars[ii + 1]);
+
+					++ii;
+					if (pos + 4 > dst.length)
+					{
+						return -1;
+					}
+					dst[pos++] = (byte) (0xF0 | (cp >> 18));
+					dst[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+					dst[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+					dst[pos++] = (byte) (0x80 | (cp & 0x3F));
+				}
+				else
+				{
+					if (pos >= dst.length)
+					{
+						return -1;
+					}
+					dst[pos++] = '?';
+				}
+			}
+			else
+			{
+				if (pos + 3 > dst.length)
+				{
+					return -1;
+				}
+				dst[pos++] = (byte) (0xE0 | (c >> 12));
+				dst[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				dst[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+
+		return pos;
+	}
+
+	private static int copy(byte[] src, int off, int len, byte[] dst, int pos)
+	{
+		if (pos + len > dst.length)
+		{
+			return -1;
+		}
+		System.arraycopy(src, off, dst, pos, len);
+
+		return pos + len;
+	}
+
+	/** get the length of the leading ASCII bytes in the range */
+	private static int asciiLength(byte[] src, int off, int end)
+	{
+		int ii = off;
+
+		while ((ii < end) && (src[ii] >= 0))
+		{
+			++ii;
+		}
+
+		return ii - off;
+	}
+
+	/** check if the bytes in the range are well-formed UTF-8, which decodes without any replacement */
+	private static boolean isValidUTF8(byte[] src, int off, int end)
+	{
+		int ii = off;
+
+		while (ii < end)
+		{
+			int b = src[ii];
+
+			if (b >= 0)
+			{
+				++ii;
+				continue;
+			}
+
+			b &= 0xFF;
+
+			int count;
+			int min;
+
+			if ((b >= 0xC2) && (b <= 0xDF))
+			{
+				count = 1;
+				min = 0x80;
+			}
+			else if ((b >= 0xE0) && (b <= 0xEF))
+			{
+				count = 2;
+				min = 0x800;
+			}
+			else if ((b >= 0xF0) && (b <= 0xF4))
+			{
+				count = 3;
+				min = 0x10000;
+			}
+			else
+			{
+				return false;
+			}
+
+			if (ii + count >= end)
+			{
+				return false;
+			}
+
+			int cp = b & (0x3F >> count);
+
+			for (int jj = 1;jj <= count;++jj)
+			{
+				int next = src[ii + jj] & 0xFF;
+
+				if ((next & 0xC0) != 0x80)
+				{
+					return false;
+				}
+				cp = (cp << 6) | (next & 0x3F);
+			}
+
+			if ((cp < min) || (cp > Character.MAX_CODE_POINT) || ((cp >= Character.MIN_SURROGATE) && (cp <= Character.MAX_SURROGATE)))
+			{
+				return false;
+			}
+			ii += count + 1;
+		}
+
+		return true;
+	}
+
+	/** check if the charset decodes every byte in [0x00, 0x7F] to the same ASCII character,
+	 * so a leading ASCII byte is always a character by itself
+	 */
+	private boolean isASCIICompatible(Charset charset)
+	{
+		Boolean compatible = asciiCompatible.get(charset);
+
+		if (null == compatible)
+		{
+			byte[] ascii = new byte[0x80];
+			char[] expected = new char[0x80];
+
+			for (int ii = 0;ii < ascii.length;++ii)
+			{
+				ascii[ii] = (byte) ii;
+				expected[ii] = (char) ii;
+			}
+
+			try
+			{
+				CharBuffer decoded = charset.newDecoder().decode(ByteBuffer.wrap(ascii));
+				compatible = decoded.equals(CharBuffer.wrap(expected));
+			}
+			catch (CharacterCodingException ex)
+			{
+				compatible = Boolean.FALSE;
+			}
+			asciiCompatible.put(charset, compatible);
+		}
+
+		return compatible;
+	}
+}
@@ -0,0 +1,185 @@
+package benjaminshi.aim.eci;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.List;
+
+/** The validator finding the first problem of an ECI escaped payload without throwing,
+ * the charset data is checked by the strict decoders of the current thread, which report errors by {@link CoderResult}.
+ * @author Benjamin Shi (SHI YU, shiyubnu@icloud.com)
+ *
+ */
+final class ECIValidator {
+
+	private ECIValidator() {
+	}
+
+	/** Parse and validate ECI escaped byte array
+	 * @param escapedData the ECI escaped byte array
+	 * @return the segments with the status of the first problem
+	 */
+	static ECIParseResult validate(byte[] escapedData)
+	{
+		List<ECISegment> segments = AIMECI.parseECI(escapedData, true);
+		ECIParseResult result = new ECIParseResult(segments);
+
+		if (null == escapedData)
+		{
+			return result;
+		}
+
+		boolean implicit = !ECIEscaping.isDesignator(escapedData, 0, escapedData.length);
+
+		for (int ii = 0;ii < segments.size();++ii)
+		{
+			ECISegment seg = segments.get(ii);
+			int eci = seg.getECIValue();
+			int start = seg.isSlice() ? seg.getSliceOffset() : 0;
+			int end = seg.isSlice() ? (start + seg.getSliceLength()) : escapedData.length;
+
+			if ((0 != ii) || (!implicit))
+			{
+				int designator = start - ECIEscaping.DESIGNATOR_LENGTH;
+
+				if (ECISegment.charsetNameOf(eci).length() <= 0)
+				{
+					if (0 != eci)
+					{
+						return result.fail(ECIParseResult.Status.UNASSIGNED_ECI, designator, eci);
+					}
+				}
+				else if (null == ECISegment.charsetOf(eci))
+				{
+					return result.fail(ECIParseResult.Status.UNSUPPORTED_CHARSET, designator, eci);
+				}
+			}
+
+			int lone = loneBackslash(escapedData, start, end);
+			int malformed = malformedOffset(seg, escapedData, start, (lone >= 0) ? lone : end);
+
+			if (malformed >= 0)
+			{
+				return result.fail(ECIParseResult.Status.MALFORMED_DATA, malformed, eci);
+			}
+			if (lone >= 0)
+			{
+				ECIParseResult.Status status = isTruncatedDesignator(escapedData, lone) 
+						? ECIParseResult.Status.TRUNCATED_DESIGNATOR : ECIParseResult.Status.UNESCAPED_BACKSLASH;
+
+				return result.fail(status, lone, eci);
+			}
+		}
+
+		return result;
+	}
+
+	/** find the first backslash in the escaped segment data which is not an escaped pair
+	 * @return the offset of the backslash, -1 if none
+	 */
+	private static int loneBackslash(byte[] data, int start, int end)
+	{
+		int ii = ECIEscaping.indexOfBackslash(data, start, end);
+
+		while (ii < end)
+		{
+			if ((ii + 1 >= end) || (ECIEscaping.BACKSLASH != data[ii + 1]))
+			{
+				return ii;
+			}
+			ii = ECIEscaping.indexOfBackslash(data, ii + 2, end);
+		}
+
+		return -1;
+	}
+
+	/** check if the backslash is followed by less than 6 digits up to the end of the payload */
+	private static boolean isTruncatedDesignator(byte[] data, int pos)
+	{
+		if (pos + ECIEscaping.DESIGNATOR_LENGTH <= data.length)
+		{
+			return false;
+		}
+		for (int ii = pos + 1;ii < data.length;++ii)
+		{
+			if ((data[ii] < 0x30) || (data[ii] > 0x39))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/** find the first malformed or unmappable byte of the escaped segment data in the range, 
+	 * the range ends before the first lone backslash if there is one
+	 * @return the offset of the byte in data, -1 if the range is well formed or the charset is not supported
+	 */
+	private static int malformedOffset(ECISegment seg, byte[] data, int start, int end)
+	{
+		ECICoders coders = ECICoders.get();
+		CharsetDecoder decoder = coders.strictDecoder(seg.getECIValue());
+
+		if ((null == decoder) || (start >= end))
+		{
+			return -1;
+		}
+
+		byte[] src = data;
+		int off = start;
+		int len = end - start;
+
+		if (ECIEscaping.indexOfBackslash(data, start, end) < end)
+		{
+			src = ECIEscaping.unescape(data, start, end - start);
+			off = 0;
+			len = src.length;
+		}
+
+		ByteBuffer in = coders.wrap(src);
+		in.limit(off + len).position(off);
+
+		CharBuffer out = coders.discarded();
+		CoderResult result = decoder.decode(in, out, true);
+
+		while (result.isOverflow())
+		{
+			out.clear();
+			result = decoder.decode(in, out, true);
+		}
+		if (result.isUnderflow())
+		{
+			out.clear();
+			result = decoder.flush(out);
+		}
+		if (!result.isError())
+		{
+			return -1;
+		}
+
+		int unescaped = in.position() - off;
+
+		return (src == data) ? (start + unescaped) : escapedOffset(data, start, unescaped);
+	}
+
+	/** map an offset in the un-escaped segment data back to the offset in the escaped data */
+	private static int escapedOffset(byte[] data, int start, int unescaped)
+	{
+		int ii = start;
+
+		for (int count = 0;count < unescaped;++count)
+		{
+			if ((ECIEscaping.BACKSLASH == data[ii]) && (ii + 1 < data.length) && (ECIEscaping.BACKSLASH == data[ii + 1]))
+			{
+				ii += 2;
+			}
+			else
+			{
+				++ii;
+			}
+		}
+
+		return ii;
+	}
+}